@@ -0,0 +1,93 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+public class BatchWriter{ // groups msgstore.db inserts into transactions of batchSize rows
+	StatementCache statements;
+	int batchSize; // rows per transaction, 0 keeps sqlite autocommit (one transaction per row)
+	long rows; // rows written in total
+	int pending; // rows written since the last commit
+	long startTime;
+	LinkedHashSet<PreparedStatement> batched; // statements holding rows added with addBatch
+	W2ALogInterface log;
+	public BatchWriter(StatementCache statements, int batchSize, W2ALogInterface log){
+		this.statements = statements;
+		this.batchSize = batchSize;
+		this.log = log;
+		batched = new LinkedHashSet<PreparedStatement>();
+	}
+	public boolean begin(){
+		try{
+			if(batchSize > 0){
+				statements.getConnection().setAutoCommit(false);
+			}
+		}catch(Exception ex){
+			log.println("failed to begin transaction");
+			log.println(ex.getMessage());
+			ex.printStackTrace();
+			return false;
+		}
+		rows = 0;
+		pending = 0;
+		startTime = System.currentTimeMillis();
+		return true;
+	}
+	public Connection getConnection(){
+		return statements.getConnection();
+	}
+	public PreparedStatement prepare(String sql) throws SQLException{
+		return statements.prepare(sql);
+	}
+	// run the row now, for rows that have to be visible before the batch is flushed
+	public void execute(PreparedStatement sql) throws SQLException{
+		sql.execute();
+		rowWritten();
+	}
+	// queue the row, for rows nothing reads back until the migration ends
+	public void addBatch(PreparedStatement sql) throws SQLException{
+		if(batchSize <= 0){
+			execute(sql);
+			return;
+		}
+		sql.addBatch();
+		batched.add(sql);
+		rowWritten();
+	}
+	void rowWritten(){
+		rows++;
+		pending++;
+	}
+	// checked between messages so a commit never splits one message's rows, never full under autocommit
+	public boolean full(){
+		return batchSize > 0 && pending >= batchSize;
+	}
+	public void flush() throws SQLException{
+		for(PreparedStatement statement : batched){
+			statement.executeBatch();
+		}
+		batched.clear();
+		if(batchSize > 0){
+			statements.getConnection().commit();
+		}
+		pending = 0;
+	}
+	public boolean finish(){
+		try{
+			flush();
+			if(batchSize > 0){
+				statements.getConnection().setAutoCommit(true);
+			}
+		}catch(Exception ex){
+			log.println("failed to commit pending rows");
+			log.println(ex.getMessage());
+			ex.printStackTrace();
+			return false;
+		}
+		long elapsed = System.currentTimeMillis() - startTime;
+		log.println("rows written: " + rows + " in " + (elapsed / 1000.0) + "s (" + (elapsed == 0 ? rows : rows * 1000 / elapsed) + " rows/sec, batch size " + batchSize + ")");
+		return true;
+	}
+}
@@ -0,0 +1,136 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.io.*;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+
+public class BulkLoad{ // loads msgstore.db with the journal and fsyncs off and the secondary indexes dropped, building them once at the end
+	// the tables MessageItem inserts into
+	static final String TABLES = "'messages', 'messages_quotes', 'messages_links', 'message_thumbnails'";
+	Connection android;
+	String journalMode; // while loading, OFF or WAL
+	File saved; // <msgstore.db>.indexes, the dropped indexes until they are built again, so a resumed run can finish them
+	File settings; // <msgstore.db>.settings, journal_mode and synchronous from before bulk loading, put back by restore()
+	Properties original;
+	// index name -> CREATE INDEX statement, unique indexes are kept because inserts rely on them
+	LinkedHashMap<String, String> dropped;
+	W2ALogInterface log;
+	public BulkLoad(Connection android, String dbPath, String journalMode, W2ALogInterface log){
+		this.android = android;
+		this.journalMode = journalMode;
+		this.log = log;
+		saved = new File(dbPath + ".indexes");
+		settings = new File(dbPath + ".settings");
+		original = new Properties();
+		dropped = new LinkedHashMap<String, String>();
+	}
+	public boolean begin(){
+		try{
+			Statement sql = android.createStatement();
+			if(settings.isFile()){
+				// an interrupted run left the database in bulk mode, its saved settings are the real ones
+				try(InputStream in = new FileInputStream(settings)){
+					original.load(in);
+				}
+			}else{
+				ResultSet pragma = sql.executeQuery("PRAGMA journal_mode");
+				original.setProperty("journal_mode", pragma.getString(1));
+				pragma.close();
+				pragma = sql.executeQuery("PRAGMA synchronous");
+				original.setProperty("synchronous", pragma.getString(1));
+				pragma.close();
+				try(FileOutputStream out = new FileOutputStream(settings)){
+					original.store(out, "msgstore.db settings from before bulk loading");
+					out.getFD().sync();
+				}
+			}
+			sql.execute("PRAGMA journal_mode = " + journalMode);
+			sql.execute("PRAGMA synchronous = OFF");
+			sql.close();
+			if(saved.isFile()){
+				// dropped by the interrupted run
+				Properties indexes = new Properties();
+				try(InputStream in = new FileInputStream(saved)){
+					indexes.load(in);
+				}
+				for(String name : indexes.stringPropertyNames()){
+					dropped.put(name, indexes.getProperty(name));
+				}
+			}
+			PreparedStatement select = android.prepareStatement("SELECT name, sql FROM sqlite_master WHERE type = 'index' AND sql IS NOT NULL AND sql NOT LIKE 'CREATE UNIQUE %' AND tbl_name IN (" + TABLES + ")");
+			ResultSet result = select.executeQuery();
+			while(result.next()){
+				dropped.put(result.getString(1), result.getString(2));
+			}
+			result.close();
+			select.close();
+			// written before dropping, an index is never lost to a crash
+			Properties indexes = new Properties();
+			for(Map.Entry<String, String> index : dropped.entrySet()){
+				indexes.setProperty(index.getKey(), index.getValue());
+			}
+			try(FileOutputStream out = new FileOutputStream(saved)){
+				indexes.store(out, "indexes dropped for bulk loading msgstore.db");
+				out.getFD().sync();
+			}
+			sql = android.createStatement();
+			for(String name : dropped.keySet()){
+				sql.execute("DROP INDEX IF EXISTS " + name);
+			}
+			sql.close();
+			log.println("bulk loading with journal_mode " + journalMode + ", " + dropped.size() + " indexes dropped until the migration ends");
+		}catch(Exception ex){
+			log.println("failed to set up bulk loading");
+			log.println(ex.getMessage());
+			ex.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+	// builds the dropped indexes, each in one pass over the loaded table
+	public boolean finish(){
+		try{
+			long startTime = System.currentTimeMillis();
+			Statement sql = android.createStatement();
+			for(Map.Entry<String, String> index : dropped.entrySet()){
+				log.print("\r");
+				log.print("building index " + index.getKey());
+				sql.execute(index.getValue().replaceFirst("(?i)^CREATE INDEX ", "CREATE INDEX IF NOT EXISTS "));
+			}
+			sql.close();
+			log.println("\rbuilt " + dropped.size() + " indexes in " + ((System.currentTimeMillis() - startTime) / 1000.0) + "s");
+			dropped.clear();
+			Files.deleteIfExists(saved.toPath());
+		}catch(Exception ex){
+			log.println("failed to build indexes");
+			log.println(ex.getMessage());
+			ex.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+	// back to the journal and syncs the database had before begin(), also after a failed run
+	public boolean restore(){
+		if(!original.containsKey("journal_mode")){
+			// begin() never got to change them
+			return true;
+		}
+		try{
+			Statement sql = android.createStatement();
+			sql.execute("PRAGMA journal_mode = " + original.getProperty("journal_mode"));
+			sql.execute("PRAGMA synchronous = " + original.getProperty("synchronous"));
+			sql.close();
+			Files.deleteIfExists(settings.toPath());
+		}catch(Exception ex){
+			log.println("failed to restore database settings");
+			log.println(ex.getMessage());
+			ex.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+}
@@ -6,8 +6,10 @@ import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.PreparedStatement;
 import java.sql.Types;
+import java.sql.SQLException;
 import com.whatsapp.MediaData;
 import java.io.*;
+import java.util.*;
 
 public class ChatListItem{ // chat_list <- ZWACHATSESSION
 	//id auto increment
@@ -55,20 +57,37 @@ public class ChatListItem{ // chat_list <- ZWACHATSESSION
 		this.sort_timestamp = sort_timestamp;
 		this.last_message_table_id = last_message_table_id;
 	}
-	public boolean injectAndroid(Connection android){
+	// updateExisting takes the name and archive state of a chat already in chat_list from the iphone, for incremental runs
+	public boolean injectAndroid(StatementCache android, boolean updateExisting){
 		try{
-			PreparedStatement sql = android.prepareStatement("SELECT _id FROM chat_list WHERE key_remote_jid = ?");
+			PreparedStatement sql = android.prepare("SELECT _id FROM chat_list WHERE key_remote_jid = ?");
 			sql.setString(1, key_remote_jid);
 			ResultSet result = sql.executeQuery();
 			if(result.next()){
+				long existing = result.getLong(1);
 				result.close();
-				sql.close();
-				// insert the newest message
+				if(!updateExisting){
+					// insert the newest message
+					return true;
+				}
+				// migrated by an earlier run, take the current name and archive state from the iphone
+				PreparedStatement update = android.prepare("UPDATE chat_list SET subject = ?, archived = ? WHERE _id = ?");
+				if(subject == null){
+					update.setNull(1, Types.VARCHAR);
+				}else{
+					update.setString(1, subject);
+				}
+				if(archived != 0){
+					update.setInt(2, archived);
+				}else{
+					update.setNull(2, Types.INTEGER);
+				}
+				update.setLong(3, existing);
+				update.execute();
 				return true;
 			}
 			result.close();
-			sql.close();
-			PreparedStatement newRow = android.prepareStatement("INSERT INTO chat_list(key_remote_jid, subject, creation, archived, sort_timestamp, my_messages, plaintext_disabled, last_message_table_id, last_read_message_table_id, last_read_receipt_sent_message_table_id, message_table_id, unseen_message_count, unseen_row_count, unseen_missed_calls_count) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, 0, 0)");
+			PreparedStatement newRow = android.prepare("INSERT INTO chat_list(key_remote_jid, subject, creation, archived, sort_timestamp, my_messages, plaintext_disabled, last_message_table_id, last_read_message_table_id, last_read_receipt_sent_message_table_id, message_table_id, unseen_message_count, unseen_row_count, unseen_missed_calls_count) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, 0, 0)");
 			newRow.setString(1, key_remote_jid);
 			if(subject == null){
 				newRow.setNull(2, java.sql.Types.VARCHAR);
@@ -101,7 +120,6 @@ public class ChatListItem{ // chat_list <- ZWACHATSESSION
 				newRow.setInt(11, last_message_table_id);
 			}
 			newRow.execute();
-			newRow.close();
 		}catch(Exception ex){
 			System.out.println("failed to inject chat session " + subject);
 			System.out.println(ex.getMessage());
@@ -110,39 +128,55 @@ public class ChatListItem{ // chat_list <- ZWACHATSESSION
 		}
 		return true;
 	}
-	public boolean updateLastMessage(Connection android){
+	public boolean updateLastMessage(StatementCache android){
 		try{
-			PreparedStatement sql = android.prepareStatement("SELECT key_remote_jid FROM chat_list");
+			// one pass over messages for the latest row of every jid, then all updates in one batch
+			PreparedStatement sql = android.prepare("SELECT key_remote_jid, MAX(_id), MAX(timestamp) FROM messages GROUP BY key_remote_jid");
+			PreparedStatement sql2 = android.prepare("UPDATE chat_list SET last_message_table_id = ?, message_table_id = ?, last_read_message_table_id = ?, sort_timestamp = ?, last_read_receipt_sent_message_table_id = ? WHERE key_remote_jid = ?");
 			ResultSet result = sql.executeQuery();
 			while(result.next()){
-				String jid = result.getString("key_remote_jid");
-				PreparedStatement sql2 = android.prepareStatement("SELECT MAX(_id), MAX(timestamp), MIN(timestamp) FROM messages WHERE key_remote_jid = ?");
-				sql2.setString(1, jid);
-				ResultSet result2 = sql2.executeQuery();
-				result2.next();
-				long latestMsgId = result2.getLong("MAX(_id)");
-				long lastMsgTimeStamp = result2.getLong("MAX(timestamp)");
-				long firstMsgTimeStamp = result2.getLong("MIN(timestamp)");
-				result2.close();
-				sql2.close();
-				sql2 = android.prepareStatement("UPDATE chat_list SET last_message_table_id = ?, message_table_id = ?, last_read_message_table_id = ?, sort_timestamp = ?, last_read_receipt_sent_message_table_id = ? WHERE key_remote_jid = ?");
+				String jid = result.getString(1);
+				long latestMsgId = result.getLong(2);
+				long lastMsgTimeStamp = result.getLong(3);
 				sql2.setLong(1, latestMsgId);
 				sql2.setLong(2, latestMsgId);
 				sql2.setLong(3, latestMsgId);
 				sql2.setLong(4, lastMsgTimeStamp);
 				sql2.setLong(5, latestMsgId);
 				sql2.setString(6, jid);
-				sql2.execute();
-				sql2.close();
+				sql2.addBatch();
 			}
 			result.close();
-			sql.close();
+			sql2.executeBatch();
 		}catch(Exception ex){
 			System.out.println("failed to update latest messages");
 			return false;
 		}
 		return true;
 	}
+	// number of migrated messages (types 0, 1, 2, 3, 4, 5, 8) per jid, counted in one pass over ZWAMESSAGE
+	public static HashMap<String, Long> countMessages(Connection iphone) throws SQLException{
+		HashMap<String, Long> counts = new HashMap<String, Long>();
+		Statement sql = iphone.createStatement();
+		ResultSet result = sql.executeQuery("SELECT ZFROMJID, ZTOJID, COUNT(Z_PK) FROM ZWAMESSAGE WHERE ZMESSAGETYPE IN (0, 1, 2, 3, 4, 5, 8) GROUP BY ZFROMJID, ZTOJID");
+		while(result.next()){
+			String from = result.getString(1);
+			String to = result.getString(2);
+			long number = result.getLong(3);
+			if(from != null){
+				Long current = counts.get(from);
+				counts.put(from, current == null ? number : current + number);
+			}
+			// a message from and to the same jid counts once, same as "ZFROMJID = ? OR ZTOJID = ?"
+			if(to != null && !to.equals(from)){
+				Long current = counts.get(to);
+				counts.put(to, current == null ? number : current + number);
+			}
+		}
+		result.close();
+		sql.close();
+		return counts;
+	}
 	// helper functions
 	public static long nsDateToMilliSecondTimeStamp(float in){
 		return (long) Math.floor(1000 * (in + 978307200));
@@ -0,0 +1,162 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+public class Checkpoint{ // how far a migration got, written before every msgstore.db commit so --resume can carry on after a crash
+	File state; // <msgstore.db>.checkpoint, position of the last committed message
+	File mediaLog; // <msgstore.db>.media, one "name<tab>source" line per finished copy, append only
+	// the last committed message, the message query starts after it again
+	long pk = -1; // ZWAMESSAGE.Z_PK, -1 before the first commit
+	double date; // ZWAMESSAGE.ZMESSAGEDATE
+	int fileCount; // MessageItem.fileCount after that message
+	// the same for the commit before, for when the latest commit never made it to disk
+	long previousPk = -1;
+	double previousDate;
+	int previousFileCount;
+	// key of the last message in the latest commit, looked up in msgstore.db on resume
+	String jid;
+	int fromMe;
+	String keyId;
+	HashMap<String, String> copied; // output name -> source path, copies that finished
+	HashMap<String, String> pending; // output name -> source path, copies still queued when the checkpoint was written
+	Writer mediaOut;
+	boolean enabled = true; // false when the database could not be resumed anyway
+	public Checkpoint(String dbPath){
+		state = new File(dbPath + ".checkpoint");
+		mediaLog = new File(dbPath + ".media");
+		copied = new HashMap<String, String>();
+		pending = new HashMap<String, String>();
+	}
+	public boolean exists(){
+		return state.isFile();
+	}
+	// false until a commit has been checkpointed
+	public boolean started(){
+		return pk >= 0;
+	}
+	public void load() throws IOException{
+		Properties saved = new Properties();
+		try(InputStream in = new FileInputStream(state)){
+			saved.load(in);
+		}
+		pk = Long.parseLong(saved.getProperty("pk"));
+		date = Double.parseDouble(saved.getProperty("date"));
+		fileCount = Integer.parseInt(saved.getProperty("fileCount"));
+		previousPk = Long.parseLong(saved.getProperty("previous.pk"));
+		previousDate = Double.parseDouble(saved.getProperty("previous.date"));
+		previousFileCount = Integer.parseInt(saved.getProperty("previous.fileCount"));
+		jid = saved.getProperty("jid");
+		fromMe = Integer.parseInt(saved.getProperty("fromMe", "0"));
+		keyId = saved.getProperty("keyId");
+		pending.clear();
+		for(String key : saved.stringPropertyNames()){
+			if(key.startsWith("pending.")){
+				pending.put(key.substring("pending.".length()), saved.getProperty(key));
+			}
+		}
+		copied.clear();
+		if(mediaLog.isFile()){
+			for(String line : Files.readAllLines(mediaLog.toPath(), StandardCharsets.UTF_8)){
+				int tab = line.indexOf('\t');
+				// a line cut short by the crash has no source yet
+				if(tab > 0){
+					copied.put(line.substring(0, tab), line.substring(tab + 1));
+				}
+			}
+		}
+	}
+	// the checkpoint is written before the commit, step back to the commit before if its last message never landed
+	public boolean verify(Connection android) throws SQLException{
+		if(keyId == null){
+			return true;
+		}
+		PreparedStatement sql = android.prepareStatement("SELECT 1 FROM messages WHERE key_remote_jid = ? AND key_from_me = ? AND key_id = ?");
+		sql.setString(1, jid);
+		sql.setInt(2, fromMe);
+		sql.setString(3, keyId);
+		ResultSet result = sql.executeQuery();
+		boolean found = result.next();
+		result.close();
+		sql.close();
+		if(!found){
+			pk = previousPk;
+			date = previousDate;
+			fileCount = previousFileCount;
+		}
+		return found;
+	}
+	// called right before a commit, last is the newest message in it
+	public void save(MessageItem last, int fileCount, Map<String, String> queued) throws IOException{
+		if(!enabled){
+			return;
+		}
+		previousPk = pk;
+		previousDate = date;
+		previousFileCount = this.fileCount;
+		pk = last.sourcePk;
+		date = last.sourceDate;
+		this.fileCount = fileCount;
+		jid = last.key_remote_jid;
+		fromMe = last.key_from_me;
+		keyId = last.key_id;
+		Properties saved = new Properties();
+		saved.setProperty("pk", Long.toString(pk));
+		saved.setProperty("date", Double.toString(date));
+		saved.setProperty("fileCount", Integer.toString(fileCount));
+		saved.setProperty("previous.pk", Long.toString(previousPk));
+		saved.setProperty("previous.date", Double.toString(previousDate));
+		saved.setProperty("previous.fileCount", Integer.toString(previousFileCount));
+		if(keyId != null && jid != null){
+			saved.setProperty("jid", jid);
+			saved.setProperty("fromMe", Integer.toString(fromMe));
+			saved.setProperty("keyId", keyId);
+		}
+		for(Map.Entry<String, String> copy : queued.entrySet()){
+			saved.setProperty("pending." + copy.getKey(), copy.getValue());
+		}
+		// written aside and renamed over, a crash mid write leaves the old checkpoint
+		File temp = new File(state.getPath() + ".tmp");
+		try(FileOutputStream out = new FileOutputStream(temp)){
+			saved.store(out, "whatsapp migration checkpoint");
+			out.getFD().sync();
+		}
+		Files.move(temp.toPath(), state.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	// true if source was already copied to name by an earlier run
+	public synchronized boolean hasCopied(String name, File source){
+		return source.getPath().equals(copied.get(name));
+	}
+	public synchronized void recordCopy(String name, File source) throws IOException{
+		if(!enabled){
+			return;
+		}
+		if(mediaOut == null){
+			mediaOut = new OutputStreamWriter(new FileOutputStream(mediaLog, true), StandardCharsets.UTF_8);
+		}
+		mediaOut.write(name + "\t" + source.getPath() + "\n");
+		mediaOut.flush();
+		copied.put(name, source.getPath());
+	}
+	public synchronized void close() throws IOException{
+		if(mediaOut != null){
+			mediaOut.close();
+			mediaOut = null;
+		}
+	}
+	// once the migration is complete, or before a fresh run
+	public void delete() throws IOException{
+		close();
+		Files.deleteIfExists(state.toPath());
+		Files.deleteIfExists(mediaLog.toPath());
+		copied.clear();
+		pending.clear();
+	}
+}
@@ -0,0 +1,73 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.io.*;
+import java.nio.channels.FileChannel;
+
+public class FileCopier{ // how bytes get from one file to another
+	public static final String ZEROCOPY = "zerocopy"; // FileChannel.transferTo, the kernel moves the bytes (sendfile/copy_file_range)
+	public static final String STREAM = "stream"; // read and write through a java buffer, works everywhere
+	String mode;
+	public FileCopier(String mode){
+		this.mode = mode;
+	}
+	public static boolean isMode(String mode){
+		return ZEROCOPY.equals(mode) || STREAM.equals(mode);
+	}
+	// bytes copied, falls back to a streamed copy if the zero-copy transfer fails
+	public long copy(File from, File to) throws IOException{
+		if(ZEROCOPY.equals(mode)){
+			try{
+				return transfer(from, to);
+			}catch(IOException ex){
+				// e.g. a filesystem that refuses transferTo, the streamed copy below starts over
+			}
+		}
+		return stream(new FileInputStream(from), to);
+	}
+	// for sources without a file, like template.db inside the jar
+	public long copy(InputStream from, File to) throws IOException{
+		return stream(from, to);
+	}
+	long transfer(File from, File to) throws IOException{
+		FileInputStream inFile = new FileInputStream(from);
+		FileOutputStream outFile = new FileOutputStream(to);
+		try{
+			FileChannel in = inFile.getChannel();
+			FileChannel out = outFile.getChannel();
+			long size = in.size();
+			long copied = 0;
+			// transferTo may move less than asked for
+			while(copied < size){
+				long transferred = in.transferTo(copied, size - copied, out);
+				if(transferred <= 0){
+					break;
+				}
+				copied += transferred;
+			}
+			if(copied != size){
+				throw new IOException("short transfer " + copied + "/" + size);
+			}
+			return copied;
+		}finally{
+			inFile.close();
+			outFile.close();
+		}
+	}
+	long stream(InputStream from, File to) throws IOException{
+		BufferedOutputStream bufferedOutFile = new BufferedOutputStream(new FileOutputStream(to));
+		try{
+			byte[] copyBuffer = new byte[65536];
+			long copied = 0;
+			int readSize = from.read(copyBuffer, 0, copyBuffer.length);
+			while(readSize != -1){
+				bufferedOutFile.write(copyBuffer, 0, readSize);
+				copied += readSize;
+				readSize = from.read(copyBuffer, 0, copyBuffer.length);
+			}
+			return copied;
+		}finally{
+			from.close();
+			bufferedOutFile.close();
+		}
+	}
+}
@@ -0,0 +1,30 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+public class IdAllocator{ // hands out _id values, msgstore.db is asked once per table
+	Connection android;
+	HashMap<String, Long> lastIds; // table -> last _id handed out
+	public IdAllocator(Connection android){
+		this.android = android;
+		lastIds = new HashMap<String, Long>();
+	}
+	public long next(String table) throws SQLException{
+		Long last = lastIds.get(table);
+		if(last == null){
+			// seed from the rows already in the table, MAX(_id) is NULL and read as 0 when it's empty
+			Statement sql = android.createStatement();
+			ResultSet result = sql.executeQuery("SELECT MAX(_id) FROM " + table);
+			last = result.next() ? result.getLong(1) : 0;
+			result.close();
+			sql.close();
+		}
+		last++;
+		lastIds.put(table, last);
+		return last;
+	}
+}
@@ -0,0 +1,153 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class MediaCopier{ // copies media files on its own threads, so inserting doesn't wait for the disk
+	// how a media file gets into the output folder, every link mode falls back to a copy per file when linking fails
+	public static final String COPY = "copy";
+	public static final String HARDLINK = "hardlink"; // same filesystem only
+	public static final String REFLINK = "reflink"; // copy-on-write clone, cp --reflink=always on btrfs/xfs, cp -c (clonefile) on apfs, one cp process per file
+	public static final String SYMLINK = "symlink"; // points back into the iphone folder, for staging runs
+	ThreadPoolExecutor workers;
+	AtomicLong bytes; // bytes copied so far
+	AtomicInteger files; // files copied so far
+	AtomicInteger links; // files linked instead of copied
+	AtomicInteger skipped; // files an interrupted run already copied
+	ConcurrentLinkedQueue<String> failures; // sources that failed to copy
+	ConcurrentHashMap<String, String> queued; // output name -> source path, copies not finished yet
+	FileCopier copier;
+	String mode;
+	MediaDeduplicator dedup; // null when duplicates are copied like any other file
+	Checkpoint checkpoint; // records finished copies, null when not checkpointing
+	long startTime;
+	W2ALogInterface log;
+	public MediaCopier(int threads, FileCopier copier, String mode, W2ALogInterface log){
+		this.copier = copier;
+		this.mode = mode;
+		this.log = log;
+		bytes = new AtomicLong();
+		files = new AtomicInteger();
+		links = new AtomicInteger();
+		skipped = new AtomicInteger();
+		failures = new ConcurrentLinkedQueue<String>();
+		queued = new ConcurrentHashMap<String, String>();
+		// bounded queue, the writer copies the file itself when every worker is busy and the queue is full
+		workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threads * 16), runnable -> {
+			Thread worker = new Thread(runnable, "media copier");
+			worker.setDaemon(true);
+			return worker;
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+		startTime = System.currentTimeMillis();
+	}
+	public static boolean isMode(String mode){
+		return COPY.equals(mode) || HARDLINK.equals(mode) || REFLINK.equals(mode) || SYMLINK.equals(mode);
+	}
+	public void copy(File from, File to){
+		if(checkpoint != null && checkpoint.hasCopied(to.getName(), from) && to.exists()){
+			skipped.incrementAndGet();
+			return;
+		}
+		queued.put(to.getName(), from.getPath());
+		workers.execute(() -> copyFile(from, to));
+	}
+	// copies queued but not finished, saved with checkpoints so a resumed run queues them again
+	public Map<String, String> pending(){
+		return new HashMap<String, String>(queued);
+	}
+	void copied(File from, File to){
+		queued.remove(to.getName());
+		if(checkpoint != null){
+			try{
+				checkpoint.recordCopy(to.getName(), from);
+			}catch(IOException ex){
+				// the file is copied again when resuming
+				log.println("failed to record copy of " + to.getName() + " in the checkpoint");
+				log.println(ex.getMessage());
+			}
+		}
+	}
+	boolean link(File from, File to){
+		if(!from.isFile()){
+			// a dangling symlink would hide the missing file, let the copy report it
+			return false;
+		}
+		try{
+			Files.deleteIfExists(to.toPath());
+			if(HARDLINK.equals(mode)){
+				Files.createLink(to.toPath(), from.toPath());
+				return true;
+			}
+			if(SYMLINK.equals(mode)){
+				Files.createSymbolicLink(to.toPath(), from.getAbsoluteFile().toPath());
+				return true;
+			}
+			if(REFLINK.equals(mode)){
+				// macOS cp has no --reflink, -c clones through clonefile(2) and fails where it can't
+				String clone = System.getProperty("os.name").startsWith("Mac") ? "-c" : "--reflink=always";
+				Process cp = new ProcessBuilder("cp", clone, from.getAbsolutePath(), to.getAbsolutePath()).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+				return cp.waitFor() == 0;
+			}
+		}catch(Exception ex){
+			// not linkable, e.g. across filesystems, copied instead
+		}
+		return false;
+	}
+	void copyFile(File from, File to){
+		if(!COPY.equals(mode) && link(from, to)){
+			links.incrementAndGet();
+			copied(from, to);
+			return;
+		}
+		try{
+			bytes.addAndGet(copier.copy(from, to));
+			files.incrementAndGet();
+			copied(from, to);
+		}catch(Exception ex){
+			log.println("failed to copy media " + from.getPath() + " to " + to.getPath());
+			log.println(ex.getMessage());
+			failures.add(from.getPath());
+			if(dedup != null){
+				// duplicates decoded from now on are copied on their own
+				dedup.failed(to.getName());
+			}
+		}
+	}
+	// waits for every queued copy, false if any of them failed
+	public boolean finish(){
+		workers.shutdown();
+		try{
+			while(!workers.awaitTermination(1, TimeUnit.SECONDS)){
+				log.print("\r");
+				log.print("media files copied: " + (files.get() + links.get()) + ", waiting for " + (workers.getQueue().size() + workers.getActiveCount()) + " more");
+			}
+		}catch(InterruptedException ex){
+			log.println("interrupted while waiting for media copies");
+			return false;
+		}
+		long elapsed = System.currentTimeMillis() - startTime;
+		double megabytes = bytes.get() / (1024.0 * 1024.0);
+		log.println("\rmedia files copied: " + files.get() + ", " + String.format("%.1f", megabytes) + " MB in " + (elapsed / 1000.0) + "s (" + String.format("%.1f", elapsed == 0 ? megabytes : megabytes * 1000 / elapsed) + " MB/s)");
+		if(!COPY.equals(mode)){
+			log.println("media files linked (" + mode + "): " + links.get());
+		}
+		if(skipped.get() != 0){
+			log.println("media files already copied by the interrupted run: " + skipped.get());
+		}
+		if(dedup != null){
+			log.println(dedup.report());
+		}
+		if(!failures.isEmpty()){
+			log.println(failures.size() + " media files failed to copy");
+			return false;
+		}
+		return true;
+	}
+	// drops queued copies, for when the migration failed
+	public void stop(){
+		workers.shutdownNow();
+	}
+}
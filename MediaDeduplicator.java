@@ -0,0 +1,102 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class MediaDeduplicator{ // finds media with the same bytes as an earlier file, looked up by the decoding threads
+	// every media file is registered by the reader as it is numbered, so a file only ever matches files numbered before it
+	ConcurrentHashMap<Long, ConcurrentSkipListMap<Integer, File>> bySize; // size -> file number -> source, files are only hashed once a size repeats
+	ConcurrentHashMap<Integer, CompletableFuture<String>> names; // file number -> name its media ended up under, null if it has none
+	ConcurrentHashMap<String, byte[]> digests; // source path -> sha-256, filled on the first size collision
+	Set<String> failed; // names whose copy failed, nothing new points at them
+	AtomicInteger duplicates;
+	AtomicLong bytesSaved;
+	public MediaDeduplicator(){
+		bySize = new ConcurrentHashMap<Long, ConcurrentSkipListMap<Integer, File>>();
+		names = new ConcurrentHashMap<Integer, CompletableFuture<String>>();
+		digests = new ConcurrentHashMap<String, byte[]>();
+		failed = ConcurrentHashMap.newKeySet();
+		duplicates = new AtomicInteger();
+		bytesSaved = new AtomicLong();
+	}
+	// called by the reader in file number order, before the message is handed to a decoding thread
+	public void register(int fileNumber, File source){
+		names.put(fileNumber, new CompletableFuture<String>());
+		bySize.computeIfAbsent(source.length(), size -> new ConcurrentSkipListMap<Integer, File>()).put(fileNumber, source);
+	}
+	// the decoding thread of fileNumber is done: the name its media is written under, its own or an earlier duplicate's, null for none
+	public void settle(int fileNumber, String name){
+		CompletableFuture<String> settled = names.get(fileNumber);
+		if(settled != null){
+			settled.complete(name);
+		}
+	}
+	// the copy to name failed, later duplicates are copied on their own
+	public void failed(String name){
+		failed.add(name);
+	}
+	// the name an earlier file with the same bytes is written under, null if the content is new
+	// hashes on the calling thread, waits for the decoding threads of earlier files with the same bytes
+	public String duplicateOf(File source, int fileNumber) throws IOException, InterruptedException{
+		ConcurrentSkipListMap<Integer, File> sameSize = bySize.get(source.length());
+		if(sameSize == null){
+			return null;
+		}
+		Map<Integer, File> earlier = sameSize.headMap(fileNumber);
+		if(earlier.isEmpty()){
+			return null;
+		}
+		byte[] digest = digest(source);
+		// oldest first, the first match that got a file is the one written
+		for(Map.Entry<Integer, File> written : earlier.entrySet()){
+			if(!Arrays.equals(digest(written.getValue()), digest)){
+				continue;
+			}
+			String name;
+			try{
+				name = names.get(written.getKey()).get();
+			}catch(ExecutionException ex){
+				throw new IOException(ex.getCause());
+			}
+			if(name != null && !failed.contains(name)){
+				duplicates.incrementAndGet();
+				bytesSaved.addAndGet(source.length());
+				return name;
+			}
+		}
+		return null;
+	}
+	public String report(){
+		return "duplicate media files: " + duplicates.get() + ", " + String.format("%.1f", bytesSaved.get() / (1024.0 * 1024.0)) + " MB saved";
+	}
+	byte[] digest(File file) throws IOException{
+		byte[] digest = digests.get(file.getPath());
+		if(digest != null){
+			return digest;
+		}
+		MessageDigest sha;
+		try{
+			sha = MessageDigest.getInstance("SHA-256");
+		}catch(NoSuchAlgorithmException ex){
+			throw new IOException(ex);
+		}
+		InputStream in = new FileInputStream(file);
+		try{
+			byte[] buffer = new byte[65536];
+			int readSize;
+			while((readSize = in.read(buffer, 0, buffer.length)) != -1){
+				sha.update(buffer, 0, readSize);
+			}
+		}finally{
+			in.close();
+		}
+		digest = sha.digest();
+		// two threads may hash the same file at once, both get the same digest
+		digests.put(file.getPath(), digest);
+		return digest;
+	}
+}
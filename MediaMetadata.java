@@ -0,0 +1,79 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.io.*;
+import java.util.*;
+import nl.pvanassen.bplist.parser.BPListElement;
+import nl.pvanassen.bplist.parser.BPListType;
+import nl.pvanassen.bplist.parser.ElementParser;
+import nl.pvanassen.bplist.parser.KeyedArchive;
+
+public class MediaMetadata{ // ZWAMEDIAITEM.ZMETADATA, an NSKeyedArchiver archive
+	static final ElementParser parser = new ElementParser(); // holds no state, shared by the decoding threads
+	static final String STANZA_ID = "stanzaID"; // key of the stanza id in an archived quoted message
+	boolean reply; // quotedMessageData is archived
+	String quotedStanzaId; // ZSTANZAID of the quoted message, null if not a reply or not found
+	List<String> mentionedJids; // empty if nobody is mentioned
+	public MediaMetadata(){
+		mentionedJids = new ArrayList<String>();
+	}
+	// follows $top and the UIDs under mentions and quotedMessageData, throws on a broken archive
+	public void parse(byte[] bplist) throws IOException{
+		KeyedArchive archive = KeyedArchive.parse(parser, bplist);
+		BPListElement<?> root = archive.top("root");
+		if(root == null){
+			return;
+		}
+		// mentions is an NSArray of jid strings
+		List<BPListElement<?>> mentions = archive.getArray(root, "mentions");
+		if(mentions != null){
+			for(BPListElement<?> mention : mentions){
+				String jid = archive.string(mention);
+				if(jid != null){
+					mentionedJids.add(jid);
+				}
+			}
+		}
+		// quotedMessageData is the stanza id itself, or the archived quoted message holding it under stanzaID
+		BPListElement<?> quoted = archive.get(root, "quotedMessageData");
+		if(quoted == null){
+			return;
+		}
+		reply = true;
+		quotedStanzaId = archive.string(quoted);
+		if(quotedStanzaId == null){
+			quotedStanzaId = archive.getString(quoted, STANZA_ID);
+		}
+		// archives without a stanzaID key, the stanza id is where it was always looked for by position
+		if(quotedStanzaId == null){
+			quotedStanzaId = firstString(archive, quoted);
+		}
+		if(quotedStanzaId == null){
+			// quoted data without strings of its own, the stanza id is the first string archived after the root object
+			for(int uid = archive.topUid("root") + 1;uid > 0 && uid < archive.size() && quotedStanzaId == null;uid++){
+				BPListElement<?> object = archive.object(uid);
+				if(object != null && (object.getType() == BPListType.ASCII_STRING || object.getType() == BPListType.UNICODE_STRING)){
+					quotedStanzaId = archive.string(object);
+				}
+			}
+		}
+	}
+	// the first archived string member of an object, archivers write members in encoding order
+	String firstString(KeyedArchive archive, BPListElement<?> object) throws IOException{
+		String first = null;
+		int firstUid = Integer.MAX_VALUE;
+		for(BPListElement<?> value : archive.values(object)){
+			int uid = archive.uid(value);
+			if(uid > 0 && uid < firstUid){
+				String string = archive.string(archive.object(uid));
+				if(string != null){
+					first = string;
+					firstUid = uid;
+				}
+			}
+		}
+		return first;
+	}
+	public String joinedMentions(){
+		return mentionedJids.isEmpty() ? null : String.join(",", mentionedJids);
+	}
+}
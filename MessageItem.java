@@ -8,8 +8,6 @@ import java.sql.PreparedStatement;
 import java.sql.Types;
 import com.whatsapp.MediaData;
 import java.io.*;
-import nl.pvanassen.bplist.converter.ConvertToXml;
-import nl.pvanassen.bplist.ext.nanoxml.XMLElement;
 import java.util.*;
 public class MessageItem{ // messages <- ZWAMESSAGE
 	long id; // _id <- Z_PK
@@ -39,9 +37,24 @@ public class MessageItem{ // messages <- ZWAMESSAGE
 	String mentioned_jids; // bplist parsing
 	int size; // media size
 	String localMediaPath; // path in iphone folder
+	String thumbnailPath; // ZXMPPTHUMBPATH, charged against the thumbnail cap when inserting
 	MessageItem quote;
+	long sourcePk; // ZWAMESSAGE.Z_PK, for checkpoints
+	double sourceDate; // ZWAMESSAGE.ZMESSAGEDATE, for checkpoints
 	W2ALogInterface log;
-	public static int fileCount;
+	public static int fileCount; // next media file number, advanced by the writer as messages are inserted
+	int fileNumber; // media file number the reader gave this row, -1 if it has no ZMEDIALOCALPATH
+	int nextFile; // next media file number after this row, what a checkpoint after this message resumes from
+	File mediaSource; // iphone file to copy when inserting, null for duplicates and messages without a file
+	String mediaFile; // name of the file in Media/From iPhone
+	// finds media already written under another name, null when duplicates are copied like any other file
+	public static MediaDeduplicator dedup;
+	// shrinks thumbnails on the decoding threads, null to keep them as they are
+	public static ThumbnailScaler thumbnails;
+	// shared by every image and video without a thumbnail, never modified
+	static byte[] dummyThumbnail; // loaded once by Migrator, shared by every image and video without a thumbnail
+	// serialisation buffer of each decoding thread, grown once to the largest object and reused
+	static final ThreadLocal<ByteArrayOutputStream> serializeBuffer = ThreadLocal.withInitial(() -> new ByteArrayOutputStream(8192));
 	public static final String standardSql = "SELECT ZWAMESSAGE.ZTOJID, ZWAMESSAGE.ZFROMJID, ZWAMESSAGE.ZISFROMME, ZWAMESSAGE.ZMESSAGEDATE, ZWAMESSAGE.ZTEXT, ZWAMESSAGE.Z_PK, ZWAMESSAGE.ZMESSAGETYPE, ZWAMESSAGE.ZSTANZAID, "
 		+
 		/*9*/"ZWAMEDIAITEM.Z_PK, ZWAMEDIAITEM.ZTITLE, ZWAMEDIAITEM.ZVCARDSTRING, ZWAMEDIAITEM.ZVCARDNAME, ZWAMEDIAITEM.ZMOVIEDURATION, ZWAMEDIAITEM.ZFILESIZE, ZWAMEDIAITEM.ZMEDIALOCALPATH, ZWAMEDIAITEM.ZLONGITUDE, ZWAMEDIAITEM.ZLATITUDE, "
@@ -61,7 +74,32 @@ public class MessageItem{ // messages <- ZWAMESSAGE
 		"LEFT JOIN ZWAGROUPMEMBER ON ZWAMESSAGE.ZGROUPMEMBER = ZWAGROUPMEMBER.Z_PK "
 		+
 		"LEFT JOIN ZWAMESSAGEDATAITEM ON ZWAMESSAGE.Z_PK = ZWAMESSAGEDATAITEM.ZMESSAGE ";
-	public static final String standardSqlAfterWhere = "GROUP BY ZWAMESSAGE.Z_PK ORDER BY ZWAMESSAGE.ZMESSAGEDATE";
+	static byte[] readResource(String name, W2ALogInterface log){
+		try(InputStream in = MessageItem.class.getClassLoader().getResourceAsStream(name)){
+			return in.readAllBytes();
+		}catch(Exception ex){
+			log.println("failed loading " + name);
+			log.println(ex.getMessage());
+			ex.printStackTrace();
+			return null;
+		}
+	}
+	// the length is known up front, so the file is read straight into an array of that size
+	static byte[] readFile(File file) throws IOException{
+		try(DataInputStream in = new DataInputStream(new FileInputStream(file))){
+			byte[] bytes = new byte[(int) file.length()];
+			in.readFully(bytes);
+			return bytes;
+		}
+	}
+	static byte[] serialize(Object object) throws IOException{
+		ByteArrayOutputStream buffer = serializeBuffer.get();
+		buffer.reset();
+		ObjectOutputStream objectOutput = new ObjectOutputStream(buffer);
+		objectOutput.writeObject(object);
+		objectOutput.close();
+		return buffer.toByteArray();
+	}
 	// *** if ZWAMESSAGEDATAITEM record exists, add messages_links record
 	public void init(long id, String key_remote_jid, int key_from_me, long timestamp, String media_caption, String media_mime_type, String media_name, String data, int media_wa_type, int media_duration, String remote_resource, byte[] thumb_image, float longitude, float latitude, String key_id, String mentioned_jids, MessageItem quote, byte[] thumbnailImage, String media_url, String localMediaPath, float width, float height, int size){
 		status = key_from_me == 1 ? 13 : 0;
@@ -93,8 +131,9 @@ public class MessageItem{ // messages <- ZWAMESSAGE
 	}
 	public MessageItem(W2ALogInterface log){
 		this.log = log;
+		fileNumber = -1;
 	}
-	public boolean populateFromResult(Connection iphone, ResultSet result, long id, boolean checkQuoted, Connection android, File iphoneFolder){
+	public boolean populateFromResult(QuoteIndex quotes, MessageRow result, long id, boolean checkQuoted, Connection android, File iphoneFolder){
 		try{
 			String remoteResource = null;
 			if(result.getInt(18/*("ZWAGROUPMEMBER.Z_PK"*//*"ZGROUPMEMBER"*/) != 0){
@@ -195,35 +234,26 @@ public class MessageItem{ // messages <- ZWAMESSAGE
 				
 			}
 			// manage thumbnail
-			String thumbnailPath = result.getString(24/*ZWAMEDIAITEM.ZXMPPTHUMBPATH*/);
-			byte[] copyBuffer = new byte[1024];
-			int copySize;
+			thumbnailPath = result.getString(24/*ZWAMEDIAITEM.ZXMPPTHUMBPATH*/);
 			if(thumbnailPath != null){
-				FileInputStream inputFile = new FileInputStream(iphoneFolder.getAbsolutePath() + "/" + thumbnailPath);
-				ByteArrayOutputStream inputFileBuffer = new ByteArrayOutputStream();
-				while((copySize = inputFile.read(copyBuffer, 0, 1024)) != -1){
-					inputFileBuffer.write(copyBuffer, 0, copySize);
+				byte[] thumbnailFile = thumbnails == null ? null : thumbnails.cached(thumbnailPath);
+				if(thumbnailFile == null){
+					thumbnailFile = readFile(new File(iphoneFolder.getAbsolutePath() + "/" + thumbnailPath));
+					if(thumbnails != null){
+						thumbnailFile = thumbnails.scale(thumbnailPath, thumbnailFile);
+					}
 				}
 				if(mediaWaType == 1 || mediaWaType == 2 || mediaWaType == 3 || mediaWaType == 9){
 					// for filed media type, store as byte[] in thumbnail
-					thumbnail = inputFileBuffer.toByteArray();
+					thumbnail = thumbnailFile;
 				}else{
 					// for non filed types, store ad byte[] in thumb_image
-					ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream();
-					ObjectOutputStream objOutputStream = new ObjectOutputStream(outputBuffer);
-					objOutputStream.writeObject(inputFileBuffer.toByteArray());
-					objOutputStream.close();
-					thumbImage = outputBuffer.toByteArray();
+					thumbImage = thumbnailFile == null ? null : serialize(thumbnailFile);
 				}
 			}else{
 				if(mediaWaType == 1 || mediaWaType == 2){
 					// give a dummy thumbnail to images and videos
-					InputStream inputFile = this.getClass().getClassLoader().getResourceAsStream("dummy.jpg");
-					ByteArrayOutputStream inputFileBuffer = new ByteArrayOutputStream();
-					while((copySize = inputFile.read(copyBuffer, 0, 1024)) != -1){
-						inputFileBuffer.write(copyBuffer, 0, copySize);
-					}
-					thumbnail = inputFileBuffer.toByteArray();
+					thumbnail = dummyThumbnail;
 				}
 			}
 			// parse bplist
@@ -232,139 +262,37 @@ public class MessageItem{ // messages <- ZWAMESSAGE
 			if(checkQuoted){
 				byte[] bplist = result.getBytes(23/*"ZWAMEDIAITEM.ZMETADATA"*/);
 				if(bplist != null){
-					//log.println("bplist != null");
-					ConvertToXml converter = new ConvertToXml();
-					XMLElement xml = null;
+					MediaMetadata metadata = new MediaMetadata();
 					try{
-						xml = converter.convertToXml(new ByteArrayInputStream(bplist));
+						metadata.parse(bplist);
 					}catch(Exception ex){
 						log.println("bad bplist from ZMETADATA x.x");
 						return false;
 					}
-
-					if(xml != null){
-						// 1. traverse to the first dict element
-						Iterator<XMLElement> firstLayerFinder = xml.iterateChildren();
-						XMLElement firstLayer = null;
-						while(firstLayerFinder.hasNext()){
-							XMLElement temp = firstLayerFinder.next();
-							if(temp.getName().equals("dict")){
-								firstLayer = temp;
-								break;
-							}
-						}
-						// 2. traverse to the first array element
-						if(firstLayer != null){
-							XMLElement secondLayer = null;
-							Iterator<XMLElement> secondLayerFinder = firstLayer.iterateChildren();
-							while(secondLayerFinder.hasNext()){
-								XMLElement temp = secondLayerFinder.next();
-								if(temp.getName().equals("array")){
-									secondLayer = temp;
-									break;
-								}
-							}
-						// 3. traverse to the first dict element
-							if(secondLayer != null){
-								XMLElement thirdLayer = null;
-								Iterator<XMLElement> thirdLayerFinder = secondLayer.iterateChildren();
-								while(thirdLayerFinder.hasNext()){
-									XMLElement temp = thirdLayerFinder.next();
-									if(temp.getName().equals("dict")){
-										thirdLayer = temp;
-										break;
-									}
-								}
-						// 4. traverse through the key elements, check UID element after mentions and quotedMessageData
-								if(thirdLayer != null){
-									Iterator<XMLElement> keyFinder = thirdLayer.iterateChildren();
-									boolean mentions = false;
-									boolean quotedMessageData = false;
-									while(keyFinder.hasNext()){
-										XMLElement temp = keyFinder.next();
-										if(temp.getName().equals("key") && temp.getContent().equals("mentions")){
-											if(keyFinder.hasNext()){
-												temp = keyFinder.next();
-												if(temp.getName().equals("UID") && !temp.getContent().equals("0")){
-													mentions = true;
-												}
-											}
-										}else if(temp.getName().equals("key") && temp.getContent().equals("quotedMessageData")){
-											if(keyFinder.hasNext()){
-												temp = keyFinder.next();
-												if(temp.getName().equals("UID") && !temp.getContent().equals("0")){
-													quotedMessageData = true;
-												}
-											}
-										}
-									}
-						// 5. leave the dict element, to the first string element after
-									if(mentions || quotedMessageData){
-										thirdLayer = null;
-										while(thirdLayerFinder.hasNext()){
-											XMLElement temp = thirdLayerFinder.next();
-											if(temp.getName().equals("string")){
-												thirdLayer = temp;
-												break;
-											}
-										}
-										if(thirdLayer != null && quotedMessageData){
-											String quotedMessageKeyId = thirdLayer.getContent();
-											PreparedStatement sql = iphone.prepareStatement(
-											standardSql
-											+
-											"WHERE ZWAMESSAGE.ZSTANZAID = ?"
-											+
-											standardSqlAfterWhere);
-											sql.setString(1, quotedMessageKeyId);
-											ResultSet result2 = sql.executeQuery();
-											if(result2.next()){
-												quotedMessage = new MessageItem(log);
-												if(!quotedMessage.populateFromResult(iphone, result2, 0, false, android, iphoneFolder)){
-													log.println("failed loading quoted message");
-													return false;
-												}
-											}
-											// need to clone media it seems
-											/*quotedMessage = new MessageItem();
-											if(!quotedMessage.cloneFromAndroid(android, quotedMessageKeyId)){
-												quotedMessage = null;
-											}*/
-										}
-										if(thirdLayer != null && mentions){
-											while(thirdLayerFinder.hasNext()){
-												thirdLayer = thirdLayerFinder.next();
-												if(thirdLayer.getName().equals("string")){
-													if(mentionedJids == null){
-														mentionedJids = thirdLayer.getContent();
-													}else{
-														mentionedJids = mentionedJids + "," + thirdLayer.getContent();
-													}
-												}
-											}
-										}
-									}
-								}
+					mentionedJids = metadata.joinedMentions();
+					if(metadata.reply && metadata.quotedStanzaId == null){
+						log.println("no stanza id for the quoted message in ZMETADATA, the reply is migrated without its quote");
+					}
+					if(metadata.quotedStanzaId != null){
+						MessageRow result2 = quotes.lookup(metadata.quotedStanzaId);
+						if(result2 != null){
+							quotedMessage = new MessageItem(log);
+							if(!quotedMessage.populateFromResult(quotes, result2, 0, false, android, iphoneFolder)){
+								log.println("failed loading quoted message");
+								return false;
 							}
 						}
-						
-						
-						// 5. if UID after mentions is not 0
-						// 5.1 leave the dict element
-						// 5.2 ignore 1 string element
-						// 5.3 ignore 1 dict element
-						// 5.4 collect all incoming string elements
-						// 5.5 set mentioned_jids accordingly
-						// 6. if UID after quotedMessageData is not 0
-						// 6.1 leave the dict element
-						// 6.2 capture first string as the key_id of the message to be clone
-						// 6.3 clone the message to messages_quotes
-						// 6.4 obtain _id of the cloned message
-						// 6.5 set quoted_row_id to _id of the cloned message
 					}
 				}
 			}
 			init(id, jid, fromMe, msgDate, mediaCaption, mediaMimeType, mediaName, data, mediaWaType, mediaDuration, remoteResource, thumbImage, longitude, latitude, keyId, mentionedJids, quotedMessage, thumbnail, mediaUrl, result.getString(15/*"ZWAMEDIAITEM.ZMEDIALOCALPATH"*/), mediaWidth, mediaHeight, mediaSize);
+			sourcePk = result.getLong(6/*"ZWAMESSAGE.Z_PK"*/);
+			// the pager reads rows without a date first, checkpointed as -Infinity
+			sourceDate = result.getString(4/*"ZWAMESSAGE.ZMESSAGEDATE"*/) == null ? Double.NEGATIVE_INFINITY : result.getDouble(4/*"ZWAMESSAGE.ZMESSAGEDATE"*/);
+			// quotes keep no file of their own
+			if(checkQuoted && (media_wa_type == 1 || media_wa_type == 2 || media_wa_type == 3 || media_wa_type == 9) && !craftMediaData(iphoneFolder)){
+				return false;
+			}
 		}catch(Exception ex){
 			log.println("failed populating from result set");
 			log.println(ex.getMessage());
@@ -373,74 +301,79 @@ public class MessageItem{ // messages <- ZWAMESSAGE
 		}
 		return true;
 	}
-	public long injectAndroid(Connection android, boolean quoted, File iphoneFolder, File whatsappFolder){
+	// names the media file and serializes its com.whatsapp.MediaData into thumb_image, on the decoding thread
+	boolean craftMediaData(File iphoneFolder){
 		try{
-			if((media_wa_type == 1 || media_wa_type == 2 || media_wa_type == 3 || media_wa_type == 9) && !quoted){
-				// copy the file
-				String fileExtension = null;
-				if(localMediaPath != null){
-					String[] splitted = localMediaPath.split("\\.");
-					if(splitted.length == 0){
-						log.println("sum ting wong with ZMEDIALOCALPATH");
-						log.println("ZMEDIALOCALPATH currently is: " + localMediaPath);
-						return -1;
-					}
-					fileExtension = splitted[splitted.length - 1];
-					FileInputStream inFile = new FileInputStream(iphoneFolder.getAbsolutePath() + "/" + localMediaPath);
-					FileOutputStream outFile = new FileOutputStream(whatsappFolder.getAbsolutePath() + "/Media/From iPhone/" + fileCount + "." + fileExtension);
-					BufferedInputStream bufferedInFile = new BufferedInputStream(inFile);
-					BufferedOutputStream bufferedOutFile = new BufferedOutputStream(outFile);
-					byte[] copyBuffer = new byte[1024];
-					int readSize = bufferedInFile.read(copyBuffer, 0, 1024);
-					while(readSize != -1){
-						bufferedOutFile.write(copyBuffer, 0, readSize);
-						readSize = bufferedInFile.read(copyBuffer, 0, 1024);
-					}
-					bufferedInFile.close();
-					bufferedOutFile.close();
-				}
-				
-				// craft a com.whatsapp.MediaData object
-				MediaData crafted = new MediaData();
-				crafted.transferred = true;
-				if(localMediaPath != null){
-					crafted.file = new File("Media/From Iphone/" + fileCount + "." + fileExtension);
-				}else{
-					crafted.file = new File("Media/From Iphone/OVERTHERAINBOW");
+			String fileName = null;
+			if(localMediaPath != null){
+				String[] splitted = localMediaPath.split("\\.");
+				if(splitted.length == 0){
+					log.println("sum ting wong with ZMEDIALOCALPATH");
+					log.println("ZMEDIALOCALPATH currently is: " + localMediaPath);
+					return false;
 				}
-				crafted.fileSize = size;
-				if(media_wa_type == 3){
-					crafted.faceX = 0;
-					crafted.faceY = 0;
-				}else{
-					crafted.faceX = -1;
-					crafted.faceY = -1;
+				String fileExtension = splitted[splitted.length - 1];
+				File source = new File(iphoneFolder.getAbsolutePath() + "/" + localMediaPath);
+				// media with the same bytes as an earlier file points at that file instead
+				fileName = dedup == null ? null : dedup.duplicateOf(source, fileNumber);
+				if(fileName == null){
+					fileName = fileNumber + "." + fileExtension;
+					mediaSource = source;
 				}
-				crafted.mediaKey = new byte[3];
-				Arrays.fill(crafted.mediaKey, (byte) 'A');
-				crafted.refKey = new byte[3];
-				Arrays.fill(crafted.refKey, (byte) 'A');
-				crafted.cipherKey = new byte[3];
-				Arrays.fill(crafted.cipherKey, (byte) 'A');
-				crafted.hmacKey = new byte[3];
-				Arrays.fill(crafted.hmacKey, (byte) 'A');
-				crafted.iv = new byte[3];
-				Arrays.fill(crafted.iv, (byte) 'A');
-				crafted.failErrorCode = 0;
-				crafted.width = (int)width;
-				crafted.height = (int)height;
-				crafted.doodleId = "Does it really matter?";
-				crafted.gifAttribution = 0;
-				crafted.thumbnailHeightWidthRatio = crafted.height == 0 ? 0 : crafted.width / crafted.height;
-				crafted.uploadRetry = false;
-				crafted.suspiciousContent = 0;
-				fileCount++;
-				// serialize the object
-				ByteArrayOutputStream craftedBuffer = new ByteArrayOutputStream();
-				ObjectOutputStream objectOutput = new ObjectOutputStream(craftedBuffer);
-				objectOutput.writeObject(crafted);
-				objectOutput.close();
-				thumb_image = craftedBuffer.toByteArray();
+			}
+			mediaFile = fileName;
+			// craft a com.whatsapp.MediaData object
+			MediaData crafted = new MediaData();
+			crafted.transferred = true;
+			if(localMediaPath != null){
+				crafted.file = new File("Media/From Iphone/" + fileName);
+			}else{
+				crafted.file = new File("Media/From Iphone/OVERTHERAINBOW");
+			}
+			crafted.fileSize = size;
+			if(media_wa_type == 3){
+				crafted.faceX = 0;
+				crafted.faceY = 0;
+			}else{
+				crafted.faceX = -1;
+				crafted.faceY = -1;
+			}
+			crafted.mediaKey = new byte[3];
+			Arrays.fill(crafted.mediaKey, (byte) 'A');
+			crafted.refKey = new byte[3];
+			Arrays.fill(crafted.refKey, (byte) 'A');
+			crafted.cipherKey = new byte[3];
+			Arrays.fill(crafted.cipherKey, (byte) 'A');
+			crafted.hmacKey = new byte[3];
+			Arrays.fill(crafted.hmacKey, (byte) 'A');
+			crafted.iv = new byte[3];
+			Arrays.fill(crafted.iv, (byte) 'A');
+			crafted.failErrorCode = 0;
+			crafted.width = (int)width;
+			crafted.height = (int)height;
+			crafted.doodleId = "Does it really matter?";
+			crafted.gifAttribution = 0;
+			crafted.thumbnailHeightWidthRatio = crafted.height == 0 ? 0 : crafted.width / crafted.height;
+			crafted.uploadRetry = false;
+			crafted.suspiciousContent = 0;
+			// serialize the object
+			thumb_image = serialize(crafted);
+		}catch(Exception ex){
+			log.println("failed crafting media data for " + localMediaPath);
+			log.println(ex.getMessage());
+			ex.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+	public long injectAndroid(BatchWriter android, IdAllocator ids, MediaCopier media, boolean quoted, File iphoneFolder, File whatsappFolder){
+		try{
+			if(mediaSource != null && !quoted){
+				// copied in the background, Migrator waits for the copies before reporting success
+				media.copy(mediaSource, new File(whatsappFolder.getAbsolutePath() + "/Media/From iPhone/" + mediaFile));
+			}
+			if(!quoted){
+				fileCount = nextFile;
 			}
 			String table;
 			if(quoted){
@@ -449,29 +382,35 @@ public class MessageItem{ // messages <- ZWAMESSAGE
 				table = "messages";
 			}
 			if(id == 0){
-				Statement sql = android.createStatement();
-				ResultSet result = sql.executeQuery("SELECT MAX(_id) FROM " + table);
-				if(result.next()){
-					id = result.getLong("MAX(_id)") + 1;
-				}else{
-					id = 2;
-				}
+				id = ids.next(table);
 			}
 			if(quote != null && !quoted){
-				quoted_row_id = quote.injectAndroid(android, true, iphoneFolder, whatsappFolder);
+				quoted_row_id = quote.injectAndroid(android, ids, media, true, iphoneFolder, whatsappFolder);
 				if(quoted_row_id == -1){
 					log.println("failed inserting quoted message");
 					return -1;
 				}
 			}
+			// the cap is charged here so what is dropped follows message order, not the decoding threads
+			if(thumbnails != null && thumbnailPath != null){
+				boolean filed = media_wa_type == 1 || media_wa_type == 2 || media_wa_type == 3 || media_wa_type == 9;
+				byte[] thumbnail = filed ? thumbnailImage : thumb_image;
+				if(thumbnail != null && !thumbnails.keep(thumbnailPath, thumbnail.length)){
+					if(filed){
+						thumbnailImage = null;
+					}else{
+						thumb_image = null;
+					}
+				}
+			}
 			boolean link = false;
 			if(media_wa_type == -1){
 				link = true;
 				media_wa_type = 0;
 			}
-			String insertStatement = "INSERT INTO " + table + "(_id, key_remote_jid, key_from_me, timestamp, media_caption, media_mime_type, media_name, data, media_wa_type, media_duration, remote_resource, thumb_image, needs_push, status, key_id, longitude, latitude, quoted_row_id, mentioned_jids, media_url) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+			String insertStatement = "INSERT INTO " + table + "(_id, key_remote_jid, key_from_me, timestamp, media_caption, media_mime_type, media_name, data, media_wa_type, media_duration, remote_resource, thumb_image, needs_push, status, key_id, longitude, latitude, quoted_row_id, mentioned_jids, media_url, raw_data) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
-			PreparedStatement sql = android.prepareStatement(insertStatement);
+			PreparedStatement sql = android.prepare(insertStatement);
 			sql.setLong(1, id);
 			sql.setString(2, key_remote_jid);
 			sql.setInt(3, key_from_me);
@@ -528,33 +467,28 @@ public class MessageItem{ // messages <- ZWAMESSAGE
 			}else{
 				sql.setNull(20, Types.VARCHAR);
 			}
-			sql.execute();
-			sql.close();
+			// quotes keep their thumbnail in raw_data
+			if(quoted && thumbnailImage != null){
+				sql.setBytes(21, thumbnailImage);
+			}else{
+				sql.setNull(21, Types.BLOB);
+			}
+			android.addBatch(sql);
 			if(link){
-				sql = android.prepareStatement("INSERT INTO messages_links(key_remote_jid, message_row_id, link_index) VALUES(?, ?, ?)");
+				sql = android.prepare("INSERT INTO messages_links(key_remote_jid, message_row_id, link_index) VALUES(?, ?, ?)");
 				sql.setString(1, key_remote_jid);
 				sql.setLong(2, id);
 				sql.setInt(3, 0);
-				sql.execute();
-				sql.close();
-			}
-			if(thumbnailImage != null){
-				if(quoted){
-					sql = android.prepareStatement("UPDATE messages_quotes SET raw_data = ? WHERE key_id = ?");
-					sql.setBytes(1, thumbnailImage);
-					sql.setString(2, key_id);
-					sql.execute();
-					sql.close();
-				}else{
-					sql = android.prepareStatement("INSERT INTO message_thumbnails(thumbnail, timestamp, key_remote_jid, key_from_me, key_id) VALUES(?, ?, ?, ?, ?)");
-					sql.setBytes(1, thumbnailImage);
-					sql.setLong(2, timestamp);
-					sql.setString(3, key_remote_jid);
-					sql.setInt(4, key_from_me);
-					sql.setString(5, key_id);
-					sql.execute();
-					sql.close();
-				}
+				android.addBatch(sql);
+			}
+			if(thumbnailImage != null && !quoted){
+				sql = android.prepare("INSERT INTO message_thumbnails(thumbnail, timestamp, key_remote_jid, key_from_me, key_id) VALUES(?, ?, ?, ?, ?)");
+				sql.setBytes(1, thumbnailImage);
+				sql.setLong(2, timestamp);
+				sql.setString(3, key_remote_jid);
+				sql.setInt(4, key_from_me);
+				sql.setString(5, key_id);
+				android.addBatch(sql);
 			}
 		}catch(Exception ex){
 			log.println("failed to inject message " + id + "\nquoted: " + quoted + "\nkey_id: " + key_id);
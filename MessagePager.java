@@ -0,0 +1,116 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class MessagePager{ // walks MessageItem.standardSql rows in (ZMESSAGEDATE, Z_PK) order one keyset window at a time
+	// rows after a (ZMESSAGEDATE, Z_PK) position, bound as date, date, Z_PK. written so sqlite can range scan the date index, Z_PK is the rowid in it
+	public static final String AFTER = "ZWAMESSAGE.ZMESSAGEDATE >= ? AND (ZWAMESSAGE.ZMESSAGEDATE > ? OR ZWAMESSAGE.Z_PK > ?) ";
+	// rows without a date, never matched by AFTER, come first like sqlite sorts them. bound as Z_PK
+	public static final String UNDATED = "ZWAMESSAGE.ZMESSAGEDATE IS NULL AND ZWAMESSAGE.Z_PK > ? ";
+	public static final String TYPES = "ZWAMESSAGE.ZMESSAGETYPE IN (0, 1, 2, 3, 4, 5, 8) ";
+	// no GROUP BY, a message with several ZWAMESSAGEDATAITEM rows comes back on adjacent rows and only the first is kept
+	public static final String PAGE = MessageItem.standardSql + "WHERE " + TYPES + "AND " + AFTER + "ORDER BY ZWAMESSAGE.ZMESSAGEDATE, ZWAMESSAGE.Z_PK LIMIT ?";
+	public static final String UNDATED_PAGE = MessageItem.standardSql + "WHERE " + TYPES + "AND " + UNDATED + "ORDER BY ZWAMESSAGE.Z_PK LIMIT ?";
+	Connection iphone;
+	PreparedStatement sql;
+	PreparedStatement undatedSql;
+	ResultSet result; // current window, null before the first and after the last
+	int pageSize;
+	int rowsInPage;
+	boolean lastPage;
+	// position of the current row, the next window starts after it. a date of -Infinity is a row without one
+	double date = Double.NEGATIVE_INFINITY;
+	long pk = -1;
+	boolean undated = true; // still reading the rows without a date
+	public MessagePager(Connection iphone, int pageSize) throws SQLException{
+		this.iphone = iphone;
+		this.pageSize = pageSize;
+		sql = iphone.prepareStatement(PAGE);
+		undatedSql = iphone.prepareStatement(UNDATED_PAGE);
+	}
+	// start after a checkpointed message instead of at the beginning, a date above -Infinity skips the rows without one
+	public void startAfter(double date, long pk){
+		this.date = date;
+		this.pk = pk;
+		undated = date == Double.NEGATIVE_INFINITY;
+	}
+	// messages from the start position on
+	public long count() throws SQLException{
+		PreparedStatement count = iphone.prepareStatement("SELECT COUNT(Z_PK) as number FROM ZWAMESSAGE WHERE " + TYPES + "AND " + (undated ? "(" + UNDATED + "OR ZWAMESSAGE.ZMESSAGEDATE IS NOT NULL)" : AFTER));
+		if(undated){
+			count.setLong(1, pk);
+		}else{
+			count.setDouble(1, date);
+			count.setDouble(2, date);
+			count.setLong(3, pk);
+		}
+		ResultSet result = count.executeQuery();
+		result.next();
+		long number = result.getLong("number");
+		result.close();
+		count.close();
+		return number;
+	}
+	// moves to the next message, false after the last one
+	public boolean next() throws SQLException{
+		while(true){
+			if(result == null){
+				if(lastPage && undated){
+					// the dated rows follow from the beginning
+					undated = false;
+					lastPage = false;
+					date = Double.NEGATIVE_INFINITY;
+					pk = -1;
+				}
+				if(lastPage){
+					return false;
+				}
+				if(undated){
+					undatedSql.setLong(1, pk);
+					undatedSql.setInt(2, pageSize);
+					result = undatedSql.executeQuery();
+				}else{
+					sql.setDouble(1, date);
+					sql.setDouble(2, date);
+					sql.setLong(3, pk);
+					sql.setInt(4, pageSize);
+					result = sql.executeQuery();
+				}
+				rowsInPage = 0;
+			}
+			if(!result.next()){
+				result.close();
+				result = null;
+				// a short window is the end of the table, or of the rows without a date
+				lastPage = rowsInPage < pageSize;
+				continue;
+			}
+			rowsInPage++;
+			long rowPk = result.getLong(6/*"ZWAMESSAGE.Z_PK"*/);
+			if(rowPk == pk){
+				// another ZWAMESSAGEDATAITEM of the same message
+				continue;
+			}
+			pk = rowPk;
+			if(!undated){
+				date = result.getDouble(4/*"ZWAMESSAGE.ZMESSAGEDATE"*/);
+			}
+			return true;
+		}
+	}
+	// the current row, valid until the next call to next()
+	public ResultSet row(){
+		return result;
+	}
+	public void close() throws SQLException{
+		if(result != null){
+			result.close();
+			result = null;
+		}
+		sql.close();
+		undatedSql.close();
+	}
+}
@@ -0,0 +1,125 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class MessagePipeline{ // one reader thread -> decoding workers -> messages handed back in order to the writer
+	static final Future<MessageItem> END = CompletableFuture.completedFuture(null);
+	QuoteIndex quotes;
+	Connection android;
+	File iphoneFolder;
+	int threads;
+	ExecutorService workers;
+	BlockingQueue<Future<MessageItem>> decoded; // bounded, the reader waits when the writer falls behind
+	Thread reader;
+	volatile Exception readError;
+	Set<String> skip; // ZSTANZAIDs already in msgstore.db within the overlap window, null to read every row
+	volatile long skipped;
+	int nextFile; // next media file number, given out by the reader in message order
+	W2ALogInterface log;
+	public MessagePipeline(QuoteIndex quotes, Connection android, File iphoneFolder, int threads, W2ALogInterface log){
+		this.quotes = quotes;
+		this.android = android;
+		this.iphoneFolder = iphoneFolder;
+		this.threads = threads;
+		this.log = log;
+		decoded = new ArrayBlockingQueue<Future<MessageItem>>(threads * 64);
+	}
+	public void start(MessagePager pages){
+		workers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread worker = new Thread(runnable, "message decoder");
+			worker.setDaemon(true);
+			return worker;
+		});
+		reader = new Thread(() -> read(pages), "message reader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+	void read(MessagePager pages){
+		try{
+			// message types are filtered in MessagePager.PAGE
+			while(pages.next()){
+				ResultSet result = pages.row();
+				// checked before decoding, so migrated rows cost neither a decode nor a media copy
+				if(skip != null && skip.contains(result.getString(8/*"ZWAMESSAGE.ZSTANZAID"*/))){
+					skipped++;
+					continue;
+				}
+				MessageRow row = new MessageRow(result);
+				// numbered before decoding, so the decoding threads can name the files and numbers don't depend on thread timing
+				String localMediaPath = row.getString(15/*"ZWAMEDIAITEM.ZMEDIALOCALPATH"*/);
+				int fileNumber = localMediaPath == null ? -1 : nextFile++;
+				int next = nextFile;
+				if(MessageItem.dedup != null && fileNumber != -1){
+					// registered in file number order, before any later file can look for its duplicate
+					MessageItem.dedup.register(fileNumber, new File(iphoneFolder.getAbsolutePath() + "/" + localMediaPath));
+				}
+				decoded.put(workers.submit(() -> decode(row, fileNumber, next)));
+			}
+		}catch(InterruptedException ex){
+			// stopped by the writer
+			return;
+		}catch(Exception ex){
+			readError = ex;
+		}
+		try{
+			decoded.put(END);
+		}catch(InterruptedException ex){
+			// stopped by the writer
+		}
+	}
+	MessageItem decode(MessageRow row, int fileNumber, int nextFile){
+		MessageItem message = new MessageItem(log);
+		message.fileNumber = fileNumber;
+		message.nextFile = nextFile;
+		try{
+			if(!message.populateFromResult(quotes, row, 0, true, android, iphoneFolder)){
+				return null;
+			}
+			return message;
+		}finally{
+			if(MessageItem.dedup != null && fileNumber != -1){
+				// later files with the same bytes wait for this, null when nothing gets written under this number
+				MessageItem.dedup.settle(fileNumber, message.mediaFile);
+			}
+		}
+	}
+	// the next decoded message in reading order, null once every row has been handed out
+	public MessageItem next() throws Exception{
+		Future<MessageItem> next = decoded.take();
+		if(next == END){
+			decoded.put(END);
+			if(readError != null){
+				throw readError;
+			}
+			return null;
+		}
+		MessageItem message = next.get();
+		if(message == null){
+			throw new Exception("loading message failed");
+		}
+		return message;
+	}
+	// returns once the reader and the decoding threads are done, the iphone statements can be closed after it
+	public void stop(){
+		if(reader != null){
+			reader.interrupt();
+		}
+		if(workers != null){
+			workers.shutdownNow();
+		}
+		try{
+			if(reader != null){
+				reader.join();
+			}
+			if(workers != null){
+				workers.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+			}
+		}catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class MessageRow{ // copy of one MessageItem.standardSql row, so it can be decoded away from the ResultSet
+	Object[] values; // values[0] is column 1
+	public MessageRow(ResultSet result) throws SQLException{
+		int columns = result.getMetaData().getColumnCount();
+		values = new Object[columns];
+		for(int i = 0;i < columns;i++){
+			values[i] = result.getObject(i + 1);
+		}
+	}
+	// getters follow ResultSet: column numbers start at 1 and NULL reads as 0 for numbers
+	public String getString(int column){
+		Object value = values[column - 1];
+		if(value == null){
+			return null;
+		}
+		if(value instanceof byte[]){
+			return new String((byte[]) value);
+		}
+		return value.toString();
+	}
+	public long getLong(int column){
+		Object value = values[column - 1];
+		if(value instanceof Number){
+			return ((Number) value).longValue();
+		}
+		if(value instanceof String){
+			try{
+				return (long) Double.parseDouble((String) value);
+			}catch(NumberFormatException ex){
+				return 0;
+			}
+		}
+		return 0;
+	}
+	public int getInt(int column){
+		return (int) getLong(column);
+	}
+	public double getDouble(int column){
+		Object value = values[column - 1];
+		if(value instanceof Number){
+			return ((Number) value).doubleValue();
+		}
+		if(value instanceof String){
+			try{
+				return Double.parseDouble((String) value);
+			}catch(NumberFormatException ex){
+				return 0;
+			}
+		}
+		return 0;
+	}
+	public float getFloat(int column){
+		return (float) getDouble(column);
+	}
+	public byte[] getBytes(int column){
+		Object value = values[column - 1];
+		if(value == null || value instanceof byte[]){
+			return (byte[]) value;
+		}
+		return value.toString().getBytes();
+	}
+}
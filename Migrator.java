@@ -9,22 +9,67 @@ import java.sql.Types;
 import com.whatsapp.MediaData;
 import java.io.*;
 import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
 public class Migrator{
 	public Migrator(W2ALogInterface log){
 		this.log = log;
+		source = new SourceDbProfile(log);
 	}
 	/*db connection android*/
 	Connection android;
+	/*statements on the android connection, closed with it*/
+	StatementCache statements;
+	/*_id values for rows inserted into the android database*/
+	IdAllocator ids;
 	/*db connection iphone*/
 	Connection iphone;
+	/*path of the iphone database, the message reader opens its own connection to it*/
+	String iphonePath;
+	/*connection settings for the iphone database*/
+	SourceDbProfile source;
 	File whatsappFolder;
 	File iphoneFolder;
 	W2ALogInterface log;
+	// rows per msgstore.db transaction, 0 for autocommit
+	int batchSize = 5000;
+	// messages read from ZWAMESSAGE per query
+	int pageSize = 5000;
+	// threads decoding messages, inserts stay on one thread
+	int threads = Runtime.getRuntime().availableProcessors();
+	// threads copying media files
+	int copyThreads = 4;
+	// how files are copied, see FileCopier
+	FileCopier copier = new FileCopier(FileCopier.ZEROCOPY);
+	// copy or link media into the output folder, see MediaCopier
+	String mediaMode = MediaCopier.COPY;
+	// write media with identical bytes only once
+	boolean dedupMedia = false;
+	// continue an interrupted migration from its checkpoint
+	boolean resume = false;
+	Checkpoint checkpoint;
+	// shrink thumbnails, null to copy them as they are
+	ThumbnailScaler thumbnails = null;
+	// fill messages_fts after the messages are in
+	boolean searchIndex = true;
+	// journal_mode while bulk loading msgstore.db, OFF or WAL, null to insert with the template's settings
+	String bulkLoad = null;
+	// add only messages missing from an existing msgstore.db
+	boolean incremental = false;
+	HashSet<String> existingKeys; // key_id of the messages in msgstore.db from the overlap window on, null unless incremental
+	// ZMESSAGEDATE an incremental run starts reading from, one overlap window before the newest migrated message
+	double existingFrom = Double.NEGATIVE_INFINITY;
+	// seconds read again before the newest migrated message, msgstore.db timestamps went through a float and late messages land out of order
+	public static final double OVERLAP = 86400;
+	int nextFile = 0; // first media file number not taken in the output folder
 	boolean loadIphoneDb(String path){
+		iphonePath = path;
 		try{
-			iphone = DriverManager.getConnection("jdbc:sqlite:" + path);
+			iphone = source.open(path);
 			if(iphone == null){
 				log.println("failed opening iphone database");
 				return false;
@@ -33,40 +78,100 @@ public class Migrator{
 			log.println("failed opening iphone database");
 			log.println(ex.getMessage());
 			ex.printStackTrace();
+			return false;
 		}
 		return true;
 	}
-	boolean loadAndroidDb(String path, String path2){
+	boolean loadAndroidDb(String path){
+		// open a msgstore.db an earlier run left behind
 		try{
-			File check = new File(path2);
-			if(check.exists()){
-				log.println("database file " + path2 + " exists!");
+			android = DriverManager.getConnection("jdbc:sqlite:" + path);
+			statements = new StatementCache(android, log);
+			ids = new IdAllocator(android);
+		}catch(Exception ex){
+			log.println("failed opening android database");
+			log.println(ex.getMessage());
+			ex.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+	boolean loadCheckpoint(){
+		try{
+			if(!checkpoint.exists()){
+				log.println("no checkpoint found at " + checkpoint.state.getPath() + ", nothing to resume");
 				return false;
 			}
-			FileInputStream dbtemplate = new FileInputStream(path);
-			FileOutputStream newdb = new FileOutputStream(path2);
-			BufferedInputStream bufferedInFile = new BufferedInputStream(dbtemplate);
-			BufferedOutputStream bufferedOutFile = new BufferedOutputStream(newdb);
-			byte[] buffer = new byte[1024];
-			int readSize = bufferedInFile.read(buffer, 0, 1024);
-			while(readSize != -1){
-				bufferedOutFile.write(buffer, 0, readSize);
-				readSize = bufferedInFile.read(buffer, 0, 1024);
-			}
-			bufferedOutFile.close();
-			android = DriverManager.getConnection("jdbc:sqlite:" + path2);
-			if(android == null){
-				log.println("failed opening android database");
-				return false;
+			checkpoint.load();
+			if(!checkpoint.verify(android)){
+				log.println("the last commit before the interruption did not complete, resuming from the one before it");
+			}
+			if(checkpoint.started()){
+				log.println("resuming after message " + checkpoint.pk + ", " + checkpoint.copied.size() + " media files already copied");
 			}
-			
 		}catch(Exception ex){
-			log.println("failed opening android database");
+			log.println("failed loading checkpoint");
+			log.println(ex.getMessage());
+			ex.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+	boolean loadExistingMessages(){
+		try{
+			existingKeys = new HashSet<String>();
+			// everything before the newest migrated message went in during the earlier run, only the window before it is matched by key_id
+			Statement newest = android.createStatement();
+			ResultSet result = newest.executeQuery("SELECT MAX(timestamp) FROM messages WHERE key_id IS NOT NULL");
+			result.next();
+			long newestTimestamp = result.getLong(1);
+			boolean empty = result.wasNull();
+			result.close();
+			newest.close();
+			if(!empty){
+				existingFrom = newestTimestamp / 1000.0 - 978307200 - OVERLAP;
+				// keys reach one more window back, their timestamps are only as close to ZMESSAGEDATE as the float they went through
+				PreparedStatement sql = android.prepareStatement("SELECT key_id FROM messages WHERE key_id IS NOT NULL AND timestamp >= ?");
+				sql.setLong(1, newestTimestamp - (long)(2 * OVERLAP * 1000));
+				result = sql.executeQuery();
+				while(result.next()){
+					existingKeys.add(result.getString(1));
+				}
+				result.close();
+				sql.close();
+			}
+			// new media is numbered after the files already there
+			File[] media = new File(whatsappFolder.getAbsolutePath() + "/Media/From iPhone").listFiles();
+			if(media != null){
+				for(File file : media){
+					String name = file.getName();
+					int dot = name.indexOf('.');
+					try{
+						nextFile = Math.max(nextFile, Integer.parseInt(dot == -1 ? name : name.substring(0, dot)) + 1);
+					}catch(NumberFormatException ex){
+						// not one of ours
+					}
+				}
+			}
+			log.println(existingKeys.size() + " messages already in the android database near its newest one, new media files start at " + nextFile);
+		}catch(Exception ex){
+			log.println("failed reading existing messages");
 			log.println(ex.getMessage());
 			ex.printStackTrace();
+			return false;
 		}
 		return true;
 	}
+	boolean openExistingAndroidDb(String path){
+		if(!loadAndroidDb(path)){
+			return false;
+		}
+		// an incremental run also picks up the checkpoint of an interrupted run, so its queued copies are finished
+		if((resume || checkpoint.exists()) && !loadCheckpoint()){
+			return false;
+		}
+		return !incremental || loadExistingMessages();
+	}
 	boolean closeIphoneDb(){
 		try{
 			iphone.close();
@@ -80,6 +185,10 @@ public class Migrator{
 	}
 	boolean closeAndroidDb(){
 		try{
+			if(statements != null){
+				statements.close();
+				statements = null;
+			}
 			android.close();
 		}catch(Exception ex){
 			log.println("error closing android database");
@@ -126,19 +235,20 @@ public class Migrator{
 			File check = new File(path);
 			if(check.exists()){
 				log.println("database file " + path + " exists!");
+				if(checkpoint != null && checkpoint.exists()){
+					log.println("it has a checkpoint, use --resume to continue that migration");
+				}
 				return false;
 			}
+			if(checkpoint != null){
+				// left over from a run whose database was removed
+				checkpoint.delete();
+			}
 			InputStream dbTemplate = this.getClass().getClassLoader().getResourceAsStream("template.db");
-			FileOutputStream outFile = new FileOutputStream(path);
-			BufferedOutputStream bufferedOutFile = new BufferedOutputStream(outFile);
-			byte[] copyBuffer = new byte[1024];
-			int readSize = dbTemplate.read(copyBuffer, 0, 1024);
-			while(readSize != -1){
-				bufferedOutFile.write(copyBuffer, 0, readSize);
-				readSize = dbTemplate.read(copyBuffer, 0, readSize);
-			}
-			bufferedOutFile.close();
+			copier.copy(dbTemplate, check);
 			android = DriverManager.getConnection("jdbc:sqlite:" + path);
+			statements = new StatementCache(android, log);
+			ids = new IdAllocator(android);
 		}catch(Exception ex){
 			log.println("create database failed!");
 			log.println(ex.getMessage());
@@ -164,6 +274,8 @@ public class Migrator{
 			long numberOfSessions = result.getLong("number");
 			result.close();
 			sql.close();
+			// sessions without any migrated message are skipped
+			HashMap<String, Long> messageCounts = ChatListItem.countMessages(iphone);
 			sql = iphone.createStatement();
 			result = sql.executeQuery(ChatListItem.standardsql);
 			long current = 0;
@@ -171,18 +283,14 @@ public class Migrator{
 			log.println("begin chatlist migration");
 			while(result.next()){
 				String jid = result.getString(1/*"ZCONTACTJID"*/);
-				PreparedStatement sql2 = iphone.prepareStatement("SELECT COUNT(Z_PK) AS number FROM ZWAMESSAGE WHERE (ZFROMJID = ? OR ZTOJID = ?) AND (ZMESSAGETYPE = 0 OR ZMESSAGETYPE = 1 OR ZMESSAGETYPE = 2 OR ZMESSAGETYPE = 3 OR ZMESSAGETYPE = 4 OR ZMESSAGETYPE = 5 OR ZMESSAGETYPE = 8)");
-				sql2.setString(1, jid);
-				sql2.setString(2, jid);
-				ResultSet result2 = sql2.executeQuery();
-				result2.next();
-				if(result2.getInt("number") != 0){
+				Long messageCount = jid == null ? null : messageCounts.get(jid);
+				if(messageCount != null && messageCount != 0){
 					ChatListItem row = new ChatListItem(log);
 					if(!row.populateFromResult(result)){
 						log.println("failed loading chatlist");
 						return false;
 					}
-					if(!row.injectAndroid(android)){
+					if(!row.injectAndroid(statements, incremental)){
 						log.println("insert chatlist failed");
 						return false;
 					}
@@ -201,54 +309,221 @@ public class Migrator{
 			return false;
 		}
 		// then work with messages
+		MessagePager pages = null;
+		QuoteIndex quotes = null;
+		Connection reading = null;
 		try{
-			Statement sql = iphone.createStatement();
-			ResultSet result = sql.executeQuery("SELECT COUNT(Z_PK) as number FROM ZWAMESSAGE");
-			result.next();
-			long numberOfMessage = result.getLong("number");
-			result.close();
-			sql.close();
-			sql = iphone.createStatement();
-			result = sql.executeQuery(MessageItem.standardSql + MessageItem.standardSqlAfterWhere);
+			// a resumed run starts after the last checkpointed message, an incremental one at its overlap window
+			double startDate = existingFrom;
+			long startPk = -1;
+			if(checkpoint.started() && checkpoint.date >= existingFrom){
+				startDate = checkpoint.date;
+				startPk = checkpoint.pk;
+			}
+			// the reader thread walks ZWAMESSAGE on a connection of its own, the decoding threads share iphone through QuoteIndex
+			reading = source.open(iphonePath);
+			// read in keyset windows, no temp b-tree of the whole history before the first row
+			pages = new MessagePager(reading, pageSize);
+			pages.startAfter(startDate, startPk);
+			long numberOfMessage = pages.count();
+			// quoted messages are looked up by stanza id
+			quotes = new QuoteIndex(iphone);
+			log.println("indexed " + quotes.build() + " stanza ids for quoted messages");
+			MessageItem.thumbnails = thumbnails;
+			MessageItem.dummyThumbnail = MessageItem.readResource("dummy.jpg", log);
 			// file counter
-			MessageItem.fileCount = 0;
+			MessageItem.fileCount = Math.max(checkpoint.fileCount, nextFile);
 			long current = 0;
+			BatchWriter writer = new BatchWriter(statements, batchSize, log);
+			if(!writer.begin()){
+				return false;
+			}
 			log.println("begin message migration");
-			while(result.next()){
-				int mediaWaType = result.getInt(7/*"ZWAMESSAGE.ZMESSAGETYPE"*//*"ZMESSAGETYPE"*/);
-				if(mediaWaType == 0 || mediaWaType == 1 || mediaWaType == 2 || mediaWaType == 3 || mediaWaType == 4 || mediaWaType == 5 || mediaWaType == 8){
-					MessageItem message = new MessageItem(log);
-					if(!message.populateFromResult(iphone, result, 0, true, android, iphoneFolder)){
-						log.println("loading message failed");
-						return false;
-					}
-					if(message.injectAndroid(android, false, iphoneFolder, whatsappFolder) == -1){
+			// rows are read and decoded on other threads, this thread is the only one writing to msgstore.db
+			MessagePipeline pipeline = new MessagePipeline(quotes, android, iphoneFolder, threads, log);
+			MediaCopier media = new MediaCopier(copyThreads, copier, mediaMode, log);
+			if(dedupMedia){
+				media.dedup = new MediaDeduplicator();
+			}
+			MessageItem.dedup = media.dedup;
+			pipeline.nextFile = MessageItem.fileCount;
+			media.checkpoint = checkpoint;
+			pipeline.skip = existingKeys;
+			// copies the interrupted run queued but never finished
+			for(Map.Entry<String, String> copy : checkpoint.pending.entrySet()){
+				media.copy(new File(copy.getValue()), new File(whatsappFolder.getAbsolutePath() + "/Media/From iPhone/" + copy.getKey()));
+			}
+			pipeline.start(pages);
+			MessageItem last = null;
+			try{
+				MessageItem message;
+				while((message = pipeline.next()) != null){
+					if(message.injectAndroid(writer, ids, media, false, iphoneFolder, whatsappFolder) == -1){
 						log.println("insert message failed");
 						return false;
 					}
+					last = message;
+					// commits only fall between messages, each one checkpointed first
+					if(writer.full()){
+						checkpoint.save(message, MessageItem.fileCount, media.pending());
+						writer.flush();
+					}
+					current++;
+					log.print("\r");
+					log.print("messages added: " + current + "/" + numberOfMessage);
 				}
-				current++;
-				log.print("\r");
-				log.print("messages added: " + current + "/" + numberOfMessage);
+				log.println("");
+				if(existingKeys != null){
+					log.println("messages already in the android database: " + pipeline.skipped);
+				}
+				if(thumbnails != null){
+					log.println(thumbnails.report());
+				}
+				if(!media.finish()){
+					log.println("copying media failed");
+					return false;
+				}
+			}finally{
+				pipeline.stop();
+				media.stop();
+			}
+			if(last != null){
+				checkpoint.save(last, MessageItem.fileCount, media.pending());
 			}
+			writer.flush();
 			ChatListItem chat = new ChatListItem(log);
-			if(!chat.updateLastMessage(android)){
+			if(!chat.updateLastMessage(statements)){
 				log.print("failed to update the latest message id into the chat_list table");
 				return false;
 			}
-			log.println("\ndone!");
-			result.close();
-			sql.close();
+			if(!writer.finish()){
+				return false;
+			}
+			log.println("done!");
 		}catch(Exception ex){
 			log.println("insert message failed");
 			log.println(ex.getMessage());
 			ex.printStackTrace();
 			return false;
+		}finally{
+			// pipeline.stop() waited for the reader and the decoding threads, nothing reads through these anymore
+			try{
+				if(pages != null){
+					pages.close();
+				}
+				if(quotes != null){
+					quotes.close();
+				}
+				if(reading != null){
+					reading.close();
+				}
+			}catch(Exception ex){
+				log.println("error closing message reader");
+				log.println(ex.getMessage());
+			}
 		}
 		return true;
 	}
 	boolean standardFlow(String iphoneDb, String iphoneFolder, String androidFolder){
-		return loadIphoneDb(iphoneDb) && openIphoneFolder(iphoneFolder) && createAndroidFolder(androidFolder) && createAndroidDb(androidFolder + "WhatsApp/Databases/msgstore.db") /*loadAndroidDb("template.db", androidFolder + "WhatsApp/Databases/msgstore.db")*/ && iphone2Android() && closeAndroidDb() && closeIphoneDb() ? true : false;
+		String androidDb = androidFolder + "WhatsApp/Databases/msgstore.db";
+		checkpoint = new Checkpoint(androidDb);
+		boolean existing = (resume || incremental) && new File(androidDb).exists();
+		if(!(loadIphoneDb(iphoneDb) && openIphoneFolder(iphoneFolder) && createAndroidFolder(androidFolder) && (existing ? openExistingAndroidDb(androidDb) : createAndroidDb(androidDb)))){
+			return false;
+		}
+		BulkLoad bulk = null;
+		// indexes left dropped by an interrupted bulk load are built even without --bulk-load
+		if(bulkLoad != null || new File(androidDb + ".indexes").isFile()){
+			// a crash with the journal off leaves a database nothing can resume, a database from an earlier run keeps its journal
+			String journal = existing || bulkLoad == null ? "WAL" : bulkLoad;
+			bulk = new BulkLoad(android, androidDb, journal, log);
+			checkpoint.enabled = !journal.equals("OFF");
+		}
+		if(batchSize == 0){
+			// every row commits on its own, a checkpoint behind each one would cost an fsync per row
+			log.println("--batch-size=0 keeps no checkpoint, the migration cannot be resumed");
+			checkpoint.enabled = false;
+		}
+		// close the databases even if the migration failed, so cached statements are released
+		boolean migrated = (bulk == null || bulk.begin()) && iphone2Android() && (!searchIndex || new SearchIndex(android, 50000, log).build()) && (bulk == null || bulk.finish());
+		try{
+			if(migrated){
+				// complete, nothing left to resume
+				checkpoint.delete();
+			}
+			checkpoint.close();
+		}catch(Exception ex){
+			log.println("error closing checkpoint");
+			log.println(ex.getMessage());
+		}
+		boolean restored = bulk == null || bulk.restore();
+		boolean androidClosed = closeAndroidDb();
+		boolean iphoneClosed = closeIphoneDb();
+		return migrated && restored && androidClosed && iphoneClosed;
+	}
+	boolean parseOption(String option){
+		if(option.startsWith("--source-")){
+			return source.parseOption(option);
+		}
+		if(option.startsWith("--thumbnail-")){
+			if(thumbnails == null){
+				thumbnails = new ThumbnailScaler();
+			}
+			return thumbnails.parseOption(option);
+		}
+		try{
+			if(option.startsWith("--batch-size=")){
+				batchSize = Integer.parseInt(option.substring("--batch-size=".length()));
+				return batchSize >= 0;
+			}
+			if(option.startsWith("--page-size=")){
+				pageSize = Integer.parseInt(option.substring("--page-size=".length()));
+				return pageSize > 0;
+			}
+			if(option.startsWith("--threads=")){
+				threads = Integer.parseInt(option.substring("--threads=".length()));
+				return threads > 0;
+			}
+			if(option.startsWith("--copy-mode=")){
+				copier = new FileCopier(option.substring("--copy-mode=".length()));
+				return FileCopier.isMode(copier.mode);
+			}
+			if(option.startsWith("--media-mode=")){
+				mediaMode = option.substring("--media-mode=".length());
+				return MediaCopier.isMode(mediaMode);
+			}
+			if(option.equals("--dedup-media")){
+				dedupMedia = true;
+				return true;
+			}
+			if(option.equals("--resume")){
+				resume = true;
+				return true;
+			}
+			if(option.equals("--bulk-load")){
+				bulkLoad = "OFF";
+				return true;
+			}
+			if(option.startsWith("--bulk-load=")){
+				bulkLoad = option.substring("--bulk-load=".length()).toUpperCase();
+				return bulkLoad.equals("OFF") || bulkLoad.equals("WAL");
+			}
+			if(option.equals("--skip-search-index")){
+				searchIndex = false;
+				return true;
+			}
+			if(option.equals("--incremental")){
+				incremental = true;
+				return true;
+			}
+			if(option.startsWith("--copy-threads=")){
+				copyThreads = Integer.parseInt(option.substring("--copy-threads=".length()));
+				return copyThreads > 0;
+			}
+		}catch(NumberFormatException ex){
+			return false;
+		}
+		return false;
 	}
 	public static void main(String[] param){
 		// register sqlite jdbc driver
@@ -259,11 +534,44 @@ public class Migrator{
 			System.out.println(ex.getMessage());
 			ex.printStackTrace();
 		}
-		if(param.length != 3){
-			System.out.println("Usage: java -jar whatsappi2a.jar <iphone database> <iphone folder (net.whatsapp.WhatsApp)> <android folder output>");
+		Migrator instance = new Migrator(new W2ALogInterface());
+		ArrayList<String> paths = new ArrayList<String>();
+		for(String p : param){
+			if(p.startsWith("--")){
+				if(!instance.parseOption(p)){
+					System.out.println("bad option " + p);
+					paths.clear();
+					break;
+				}
+			}else{
+				paths.add(p);
+			}
+		}
+		if(paths.size() != 3){
+			System.out.println("Usage: java -jar whatsappi2a.jar [options] <iphone database> <iphone folder (net.whatsapp.WhatsApp)> <android folder output>");
+			System.out.println("Options:");
+			System.out.println("\t--batch-size=<rows>\trows per msgstore.db transaction, 0 for one transaction per row (default 5000)");
+			System.out.println("\t--page-size=<rows>\tmessages read from the iphone database per query (default 5000)");
+			System.out.println("\t--threads=<count>\tthreads decoding messages (default: number of cores)");
+			System.out.println("\t--copy-threads=<count>\tthreads copying media files (default 4)");
+			System.out.println("\t--copy-mode=<zerocopy|stream>\tkernel side copies or copies through a java buffer (default zerocopy)");
+			System.out.println("\t--media-mode=<copy|hardlink|reflink|symlink>\tcopy media or link it from the iphone folder, falls back to copy per file (default copy)");
+			System.out.println("\t--dedup-media\twrite media files with identical bytes once and point every message at that copy");
+			System.out.println("\t--source-readonly=<true|false>\topen the iphone database read-only (default true)");
+			System.out.println("\t--source-immutable\topen the iphone database as immutable, only for a copy nothing else has open");
+			System.out.println("\t--source-cache-size=<KiB>\tpage cache of the iphone database (default 262144)");
+			System.out.println("\t--source-mmap-size=<MiB>\tiphone database mapped into memory, 0 to read it with syscalls (default 1024)");
+			System.out.println("\t--source-temp-store=<default|file|memory>\twhere sqlite keeps temporary tables and indexes for the iphone database (default memory)");
+			System.out.println("\t--source-query-only=<true|false>\trefuse any write to the iphone database (default true)");
+			System.out.println("\t--resume\tcontinue an interrupted migration into the same android folder from its checkpoint");
+			System.out.println("\t--bulk-load[=off|wal]\tload msgstore.db without fsyncs and with its secondary indexes built at the end, off also drops the journal and cannot be resumed (default off)");
+			System.out.println("\t--thumbnail-size=<pixels>\tshrink thumbnails to this longest side (default 100 once any --thumbnail- option is given)");
+			System.out.println("\t--thumbnail-quality=<0-100>\tjpeg quality of shrunk thumbnails (default 75)");
+			System.out.println("\t--thumbnail-cap=<MiB>\tleave out thumbnails once they add up to this much, 0 for no cap (default 0)");
+			System.out.println("\t--skip-search-index\tleave messages_fts empty for the phone to fill");
+			System.out.println("\t--incremental\tadd messages newer than an earlier migration into the same android folder");
 			return;
 		}
-		Migrator instance = new Migrator(new W2ALogInterface());
-		instance.standardFlow(param[0], param[1], param[2]);
+		instance.standardFlow(paths.get(0), paths.get(1), paths.get(2));
 	}
 }
@@ -0,0 +1,57 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+public class QuoteIndex{ // ZSTANZAID -> ZWAMESSAGE.Z_PK, quoted messages are then fetched by primary key
+	Connection iphone;
+	HashMap<String, Long> rows;
+	PreparedStatement byPk;
+	public QuoteIndex(Connection iphone){
+		this.iphone = iphone;
+		rows = new HashMap<String, Long>();
+	}
+	// one pass over ZWAMESSAGE, the earliest message wins if a stanza id repeats
+	public int build() throws SQLException{
+		HashMap<String, Double> dates = new HashMap<String, Double>();
+		Statement sql = iphone.createStatement();
+		ResultSet result = sql.executeQuery("SELECT ZSTANZAID, Z_PK, ZMESSAGEDATE FROM ZWAMESSAGE WHERE ZSTANZAID IS NOT NULL");
+		while(result.next()){
+			String stanzaId = result.getString(1);
+			double date = result.getDouble(3);
+			Double seen = dates.get(stanzaId);
+			if(seen == null || date < seen){
+				rows.put(stanzaId, result.getLong(2));
+				dates.put(stanzaId, date);
+			}
+		}
+		result.close();
+		sql.close();
+		byPk = iphone.prepareStatement(MessageItem.standardSql + "WHERE ZWAMESSAGE.Z_PK = ?");
+		return rows.size();
+	}
+	// the quoted row in MessageItem.standardSql columns, null if the message is not in ZWAMESSAGE
+	// called from the decoding workers, they share the one statement
+	public synchronized MessageRow lookup(String stanzaId) throws SQLException{
+		Long pk = rows.get(stanzaId);
+		if(pk == null){
+			return null;
+		}
+		byPk.setLong(1, pk);
+		ResultSet result = byPk.executeQuery();
+		MessageRow row = result.next() ? new MessageRow(result) : null;
+		result.close();
+		return row;
+	}
+	public synchronized void close() throws SQLException{
+		if(byPk != null){
+			byPk.close();
+			byPk = null;
+		}
+		rows.clear();
+	}
+}
@@ -0,0 +1,59 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+public class SearchIndex{ // fills messages_fts from the migrated messages, so search works without the phone indexing the history
+	// text messages and media captions, vcards are left out
+	static final String INSERT = "INSERT INTO messages_fts(docid, content) SELECT _id, TRIM(IFNULL(data, '') || ' ' || IFNULL(media_caption, '')) FROM messages WHERE _id > ? AND _id <= ? AND media_wa_type != 4 AND (data IS NOT NULL OR media_caption IS NOT NULL)";
+	Connection android;
+	int batchSize; // message ids per insert
+	W2ALogInterface log;
+	public SearchIndex(Connection android, int batchSize, W2ALogInterface log){
+		this.android = android;
+		this.batchSize = batchSize;
+		this.log = log;
+	}
+	public boolean build(){
+		try{
+			long startTime = System.currentTimeMillis();
+			Statement sql = android.createStatement();
+			// messages indexed by an earlier run keep their docid, only newer ids are added
+			ResultSet result = sql.executeQuery("SELECT IFNULL(MAX(docid), 0) FROM messages_fts_content");
+			result.next();
+			long from = result.getLong(1);
+			result.close();
+			result = sql.executeQuery("SELECT IFNULL(MAX(_id), 0) FROM messages");
+			result.next();
+			long to = result.getLong(1);
+			result.close();
+			// one transaction, fts3 keeps the pending terms in memory and merges segments itself instead of per commit
+			android.setAutoCommit(false);
+			PreparedStatement insert = android.prepareStatement(INSERT);
+			long indexed = 0;
+			for(long id = from;id < to;id += batchSize){
+				insert.setLong(1, id);
+				insert.setLong(2, Math.min(id + batchSize, to));
+				indexed += insert.executeUpdate();
+				log.print("\r");
+				log.print("messages indexed for search: " + indexed);
+			}
+			insert.close();
+			log.println("");
+			// merges every segment into one b-tree
+			sql.execute("INSERT INTO messages_fts(messages_fts) VALUES('optimize')");
+			sql.close();
+			android.commit();
+			android.setAutoCommit(true);
+			log.println("search index built in " + ((System.currentTimeMillis() - startTime) / 1000.0) + "s");
+		}catch(Exception ex){
+			log.println("failed to build search index");
+			log.println(ex.getMessage());
+			ex.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,82 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+public class SourceDbProfile{ // how ChatStorage.db is opened, it is only ever read so it gets a read-only connection tuned for scans
+	static final int SQLITE_OPEN_READONLY = 0x01;
+	static final int SQLITE_OPEN_READWRITE = 0x02;
+	static final int SQLITE_OPEN_URI = 0x40;
+	boolean readOnly = true;
+	// skips locking and change detection, only safe on a copy nothing else has open
+	boolean immutable = false;
+	long cacheSize = 262144; // KiB of page cache
+	long mmapSize = 1024; // MiB mapped instead of read with pread, 0 turns it off
+	String tempStore = "MEMORY"; // DEFAULT, FILE or MEMORY
+	boolean queryOnly = true;
+	W2ALogInterface log;
+	public SourceDbProfile(W2ALogInterface log){
+		this.log = log;
+	}
+	public Connection open(String path) throws SQLException{
+		boolean useImmutable = immutable;
+		File wal = new File(path + "-wal");
+		if(useImmutable && wal.length() > 0){
+			// immutable ignores the wal, messages not checkpointed into the database would be missed
+			log.println(wal.getPath() + " is not empty, opening without immutable");
+			useImmutable = false;
+		}
+		Properties config = new Properties();
+		config.setProperty("open_mode", Integer.toString((readOnly ? SQLITE_OPEN_READONLY : SQLITE_OPEN_READWRITE) | SQLITE_OPEN_URI));
+		// toURI percent-encodes spaces, ?, # and %, so the query only ever holds immutable=1
+		String url = useImmutable ? "jdbc:sqlite:" + new File(path).getAbsoluteFile().toURI() + "?immutable=1" : "jdbc:sqlite:" + path;
+		Connection connection = DriverManager.getConnection(url, config);
+		Statement pragma = connection.createStatement();
+		pragma.execute("PRAGMA cache_size = -" + cacheSize);
+		pragma.execute("PRAGMA mmap_size = " + (mmapSize * 1024 * 1024));
+		pragma.execute("PRAGMA temp_store = " + tempStore);
+		if(queryOnly){
+			pragma.execute("PRAGMA query_only = ON");
+		}
+		pragma.close();
+		return connection;
+	}
+	// --source-* options, false if the option is not one of them or has a bad value
+	public boolean parseOption(String option){
+		try{
+			if(option.startsWith("--source-readonly=")){
+				String value = option.substring("--source-readonly=".length());
+				readOnly = value.equals("true");
+				return readOnly || value.equals("false");
+			}
+			if(option.equals("--source-immutable")){
+				immutable = true;
+				return true;
+			}
+			if(option.startsWith("--source-cache-size=")){
+				cacheSize = Long.parseLong(option.substring("--source-cache-size=".length()));
+				return cacheSize >= 0;
+			}
+			if(option.startsWith("--source-mmap-size=")){
+				mmapSize = Long.parseLong(option.substring("--source-mmap-size=".length()));
+				return mmapSize >= 0;
+			}
+			if(option.startsWith("--source-temp-store=")){
+				tempStore = option.substring("--source-temp-store=".length()).toUpperCase();
+				return tempStore.equals("DEFAULT") || tempStore.equals("FILE") || tempStore.equals("MEMORY");
+			}
+			if(option.startsWith("--source-query-only=")){
+				String value = option.substring("--source-query-only=".length());
+				queryOnly = value.equals("true");
+				return queryOnly || value.equals("false");
+			}
+		}catch(NumberFormatException ex){
+			return false;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,44 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+public class StatementCache{ // prepared statements on msgstore.db, compiled once per sql text
+	Connection android;
+	HashMap<String, PreparedStatement> statements;
+	W2ALogInterface log;
+	public StatementCache(Connection android, W2ALogInterface log){
+		this.android = android;
+		this.log = log;
+		statements = new HashMap<String, PreparedStatement>();
+	}
+	public Connection getConnection(){
+		return android;
+	}
+	// the returned statement is shared, set every parameter before running it and never close it
+	public PreparedStatement prepare(String sql) throws SQLException{
+		PreparedStatement statement = statements.get(sql);
+		if(statement == null){
+			statement = android.prepareStatement(sql);
+			statements.put(sql, statement);
+		}
+		return statement;
+	}
+	public boolean close(){
+		boolean closed = true;
+		for(PreparedStatement statement : statements.values()){
+			try{
+				statement.close();
+			}catch(Exception ex){
+				log.println("failed to close statement");
+				log.println(ex.getMessage());
+				ex.printStackTrace();
+				closed = false;
+			}
+		}
+		statements.clear();
+		return closed;
+	}
+}
@@ -0,0 +1,137 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.HashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+public class ThumbnailScaler{ // shrinks iphone thumbnails to what android renders on the decoding threads, the cap is charged on the writer
+	static final long CACHE_LIMIT = 64 * 1024 * 1024; // bytes of scaled thumbnails kept for quotes of the same message
+	int size = 100; // longest side in pixels
+	float quality = 0.75f; // jpeg quality, 0 to 1
+	long cap = 0; // total thumbnail bytes, thumbnails past it are dropped, 0 for no cap
+	AtomicLong before; // bytes read from the iphone folder
+	AtomicLong after; // bytes kept
+	AtomicInteger scaled; // thumbnails re-encoded smaller
+	AtomicInteger dropped; // thumbnails left out because of the cap
+	// ZXMPPTHUMBPATH -> scaled thumbnail, a quote shows the thumbnail of its message again
+	ConcurrentHashMap<String, byte[]> cache;
+	AtomicLong cached;
+	// ZXMPPTHUMBPATH -> whether it fit under the cap, writer thread only
+	HashMap<String, Boolean> kept;
+	public ThumbnailScaler(){
+		before = new AtomicLong();
+		after = new AtomicLong();
+		scaled = new AtomicInteger();
+		dropped = new AtomicInteger();
+		cache = new ConcurrentHashMap<String, byte[]>();
+		cached = new AtomicLong();
+		kept = new HashMap<String, Boolean>();
+		// encode in memory, no temporary files
+		ImageIO.setUseCache(false);
+	}
+	// the thumbnail scale() returned for path, null if it is not cached
+	public byte[] cached(String path){
+		return cache.get(path);
+	}
+	// the smaller of the original and the re-encoded thumbnail
+	public byte[] scale(String path, byte[] image){
+		if(image == null){
+			return null;
+		}
+		before.addAndGet(image.length);
+		byte[] result = image;
+		try{
+			byte[] encoded = encode(image);
+			if(encoded != null && encoded.length < image.length){
+				result = encoded;
+				scaled.incrementAndGet();
+			}
+		}catch(Exception ex){
+			// not an image ImageIO can read, kept as it is
+		}
+		// past the limit thumbnails are scaled again, with the same result
+		if(cached.get() < CACHE_LIMIT && cache.putIfAbsent(path, result) == null){
+			cached.addAndGet(result.length);
+		}
+		return result;
+	}
+	// charges a thumbnail against the cap in message order, false once it no longer fits
+	// a thumbnail shown again by a quote gets the same answer and is not charged twice
+	public boolean keep(String path, int length){
+		Boolean fits = kept.get(path);
+		if(fits == null){
+			fits = cap == 0 || after.get() + length <= cap;
+			if(fits){
+				after.addAndGet(length);
+			}else{
+				dropped.incrementAndGet();
+			}
+			kept.put(path, fits);
+		}
+		return fits;
+	}
+	byte[] encode(byte[] image) throws IOException{
+		BufferedImage original = ImageIO.read(new ByteArrayInputStream(image));
+		if(original == null){
+			return null;
+		}
+		int width = original.getWidth();
+		int height = original.getHeight();
+		int longest = Math.max(width, height);
+		if(longest > size){
+			width = Math.max(1, width * size / longest);
+			height = Math.max(1, height * size / longest);
+		}
+		// jpeg has no alpha, drawn onto rgb
+		BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = resized.createGraphics();
+		graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		graphics.drawImage(original, 0, 0, width, height, null);
+		graphics.dispose();
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try(ImageOutputStream stream = ImageIO.createImageOutputStream(output)){
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(quality);
+			writer.setOutput(stream);
+			writer.write(null, new IIOImage(resized, null, null), param);
+		}finally{
+			writer.dispose();
+		}
+		return output.toByteArray();
+	}
+	public String report(){
+		return "thumbnails: " + String.format("%.1f", before.get() / 1024.0) + " KB -> " + String.format("%.1f", after.get() / 1024.0) + " KB, " + scaled.get() + " re-encoded, " + dropped.get() + " dropped over the cap";
+	}
+	// --thumbnail-* options, false if the option is not one of them or has a bad value
+	public boolean parseOption(String option){
+		try{
+			if(option.startsWith("--thumbnail-size=")){
+				size = Integer.parseInt(option.substring("--thumbnail-size=".length()));
+				return size > 0;
+			}
+			if(option.startsWith("--thumbnail-quality=")){
+				int percent = Integer.parseInt(option.substring("--thumbnail-quality=".length()));
+				quality = percent / 100.0f;
+				return percent >= 0 && percent <= 100;
+			}
+			if(option.startsWith("--thumbnail-cap=")){
+				cap = Long.parseLong(option.substring("--thumbnail-cap=".length())) * 1024 * 1024;
+				return cap >= 0;
+			}
+		}catch(NumberFormatException ex){
+			return false;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,64 @@
+package nl.pvanassen.bplist;
+
+import java.util.Date;
+
+/**
+ * Receives the objects of a binary PList one by one, depth first from the top
+ * level object, without a tree being built. Every dict is reported as
+ * startDict, then key followed by its value for every entry, then endDict.
+ * Arrays work the same without the keys.
+ *
+ * @see nl.pvanassen.bplist.parser.ElementParser#walk(java.util.List, BPListVisitor)
+ */
+public interface BPListVisitor {
+
+    /**
+     * @param size Number of entries
+     */
+    void startDict(int size);
+
+    /**
+     * A dict key, its value follows unless the visitor skips it
+     *
+     * @param key Key
+     * @return False to skip the value, it is then not decoded at all
+     */
+    boolean key(String key);
+
+    void endDict();
+
+    /**
+     * @param size Number of elements
+     */
+    void startArray(int size);
+
+    void endArray();
+
+    void string(String value);
+
+    void integer(long value);
+
+    /**
+     * @param value Float or double value
+     */
+    void real(double value);
+
+    void bool(boolean value);
+
+    void date(Date value);
+
+    /**
+     * @param value The bytes, owned by the parser and not to be modified
+     */
+    void data(byte[] value);
+
+    /**
+     * @param value Keyed archiver reference into $objects
+     */
+    void uid(int value);
+
+    /**
+     * The bplist null, also used by keyed archives for $null
+     */
+    void nullValue();
+}
@@ -125,12 +125,7 @@ public class ConvertToXml {
      * @throws IOException If the file is not found
      */
     public XMLElement convertToXml(File file) throws IOException {
-        // Convert the object table to XML and return it
-        XMLElement root = new XMLElement(new HashMap<String, char[]>(), false, false);
-        root.setName("plist");
-        root.setAttribute("version", "1.0");
-        convertObjectTableToXML(root, parser.parseObjectTable(file).get(0));
-        return root;
+        return convertToXml(parser.parseObjectTable(file));
     }
     
     /**
@@ -142,12 +137,20 @@ public class ConvertToXml {
      * @throws IOException If the file is not found
      */
     public XMLElement convertToXml(InputStream is) throws IOException {
-        // Convert the object table to XML and return it
-        XMLElement root = new XMLElement(new HashMap<String, char[]>(), false, false);
-        root.setName("plist");
-        root.setAttribute("version", "1.0");
-        convertObjectTableToXML(root, parser.parseObjectTable(is).get(0));
-        return root;
+        return convertToXml(parser.parseObjectTable(is));
+    }
+    
+    /**
+     * Parses a binary PList held in memory and turns it into a XMLElement. The
+     * bytes are decoded in place. The XMLElement is equivalent with a XML PList
+     * file parsed using NanoXML.
+     * 
+     * @param bytes bplist to parse
+     * @return Returns the parsed XMLElement.
+     * @throws IOException If the bytes are not a bplist
+     */
+    public XMLElement convertToXml(byte[] bytes) throws IOException {
+        return convertToXml(parser.parse(bytes));
     }
     
     /**
@@ -156,14 +159,19 @@ public class ConvertToXml {
      * 
      * @param list Parsed tree
      * @return Returns the parsed XMLElement.
-     * @throws IOException If the file is not found
+     * @throws IOException If the file is not found or an object is malformed
      */
     public XMLElement convertToXml(List<BPListElement<?>> list) throws IOException {
         // Convert the object table to XML and return it
         XMLElement root = new XMLElement(new HashMap<String, char[]>(), false, false);
         root.setName("plist");
         root.setAttribute("version", "1.0");
-        convertObjectTableToXML(root, list.get(0));
+        try {
+            convertObjectTableToXML(root, parser.getTopObject(list));
+        } catch (UncheckedIOException e) {
+            // objects are decoded as the conversion reaches them
+            throw e.getCause();
+        }
         return root;
     }
     
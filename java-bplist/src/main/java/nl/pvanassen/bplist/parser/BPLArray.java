@@ -32,6 +32,20 @@ class BPLArray implements BPListElement<List<BPListElement<?>>> {
         return array;
     }
 
+    /**
+     * @return Number of elements
+     */
+    int size() {
+        return objref.length;
+    }
+
+    /**
+     * Looks up one element without decoding the others
+     */
+    BPListElement<?> get(int idx) {
+        return objectTable.get(objref[idx]);
+    }
+
     @Override
     public String toString() {
         StringBuffer buf = new StringBuffer("Array{");
@@ -36,6 +36,42 @@ class BPLDict implements BPListElement<Map<String,BPListElement<?>>> {
         return dict;
     }
 
+    /**
+     * @return Number of entries
+     */
+    int size() {
+        return keyref.length;
+    }
+
+    /**
+     * Looks up one key without decoding the other entries
+     */
+    BPListElement<?> key(int idx) {
+        return objectTable.get(keyref[idx]);
+    }
+
+    /**
+     * Looks up one value without decoding the other entries
+     */
+    BPListElement<?> value(int idx) {
+        return objectTable.get(objref[idx]);
+    }
+
+    /**
+     * Looks up the value of one key, decoding the keys but none of the other
+     * values
+     *
+     * @return The value, null if the key is missing
+     */
+    BPListElement<?> get(String key) {
+        for (int idx = 0; idx != keyref.length; idx++) {
+            if (key.equals(objectTable.get(keyref[idx]).getValue().toString())) {
+                return objectTable.get(objref[idx]);
+            }
+        }
+        return null;
+    }
+
     @Override
     public String toString() {
         StringBuffer buf = new StringBuffer("BPLDict{");
@@ -0,0 +1,129 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Converts a binary PList into plain Java objects, without going through XML
+ * and strings:
+ * <ul>
+ * <li>dict to LinkedHashMap, in the order of the bplist</li>
+ * <li>array to ArrayList</li>
+ * <li>string to String</li>
+ * <li>integer to Long</li>
+ * <li>real to Double</li>
+ * <li>boolean to Boolean</li>
+ * <li>data to byte[]</li>
+ * <li>date to Date</li>
+ * <li>uid to {@link Uid}</li>
+ * <li>null to null</li>
+ * </ul>
+ * An object referenced from several places becomes one Java object, so shared
+ * subtrees are converted once and stay shared. A container holding itself
+ * holds its own conversion.
+ */
+public class ConvertToJava {
+    private final ElementParser parser = new ElementParser();
+
+    /**
+     * @param file bplist to convert
+     * @return The top level object
+     * @throws IOException If the file can't be read or is not a bplist
+     */
+    public Object convertToJava(File file) throws IOException {
+        return convertToJava(parser.parseObjectTable(file));
+    }
+
+    /**
+     * @param is bplist input stream to convert, read to its end and left open
+     * @return The top level object
+     * @throws IOException If the stream can't be read or is not a bplist
+     */
+    public Object convertToJava(InputStream is) throws IOException {
+        return convertToJava(parser.parseObjectTable(is));
+    }
+
+    /**
+     * @param bytes bplist to convert
+     * @return The top level object
+     * @throws IOException If the bytes are not a bplist
+     */
+    public Object convertToJava(byte[] bytes) throws IOException {
+        return convertToJava(parser.parse(bytes));
+    }
+
+    /**
+     * @param objectTable Object table returned by the parser
+     * @return The top level object
+     * @throws IOException If an object is malformed
+     */
+    public Object convertToJava(List<BPListElement<?>> objectTable) throws IOException {
+        return convert(parser.getTopObject(objectTable));
+    }
+
+    /**
+     * @param element Any element of an object table
+     * @return The element and everything it references
+     * @throws IOException If an object is malformed
+     */
+    public Object convert(BPListElement<?> element) throws IOException {
+        try {
+            // decoded objects are kept by the object table, a shared reference is the same element
+            return convert(element, new IdentityHashMap<BPListElement<?>, Object>());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Object convert(BPListElement<?> element, Map<BPListElement<?>, Object> converted) throws IOException {
+        if (element == null) {
+            return null;
+        }
+        Object done = converted.get(element);
+        if (done != null) {
+            return done;
+        }
+        switch (element.getType()) {
+            case SHORT_DICT:
+            case BYTE_DICT: {
+                BPLDict dict = (BPLDict) element;
+                Map<String, Object> map = new LinkedHashMap<String, Object>();
+                // registered before the entries, so a dict inside itself finds it
+                converted.put(element, map);
+                for (int i = 0; i < dict.size(); i++) {
+                    map.put(dict.key(i).getValue().toString(), convert(dict.value(i), converted));
+                }
+                return map;
+            }
+            case SHORT_ARRAY:
+            case BYTE_ARRAY: {
+                BPLArray array = (BPLArray) element;
+                List<Object> list = new ArrayList<Object>(array.size());
+                converted.put(element, list);
+                for (int i = 0; i < array.size(); i++) {
+                    list.add(convert(array.get(i), converted));
+                }
+                return list;
+            }
+            case ASCII_STRING:
+            case UNICODE_STRING:
+            case LONG:
+            case BOOLEAN:
+            case DATE:
+                return element.getValue();
+            case FLOAT:
+            case DOUBLE:
+                return ((Number) element.getValue()).doubleValue();
+            case DATA: {
+                // the same array for every reference, like the containers
+                Object data = element.getValue();
+                converted.put(element, data);
+                return data;
+            }
+            case UID:
+                return new Uid((Integer) element.getValue());
+            default:
+                throw new IOException("convert: unsupported type " + element.getType());
+        }
+    }
+}
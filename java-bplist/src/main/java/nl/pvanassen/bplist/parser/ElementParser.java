@@ -2,9 +2,13 @@ package nl.pvanassen.bplist.parser;
 
 import java.io.*;
 import java.math.BigInteger;
+import java.nio.*;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 
+import nl.pvanassen.bplist.BPListVisitor;
+
 import org.apache.commons.io.IOUtils;
 import org.slf4j.*;
 
@@ -17,8 +21,8 @@ public class ElementParser {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     /**
-     * Parse object table with a random access file. This method will not close
-     * the file for you.
+     * Parse object table from a file. The file is memory mapped and decoded in
+     * place.
      *
      * @param file File object
      * @return List of objects parsed
@@ -26,33 +30,77 @@ public class ElementParser {
      *             In case of an error
      */
     public List<BPListElement<?>> parseObjectTable(File file) throws IOException {
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(file, "r");
-            return parseObjectTable(raf);
-        } finally {
-            IOUtils.closeQuietly(raf);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
         }
     }
 
     /**
-     * Parse object table with a random access file. This method will not close
-     * the file for you.
+     * Parse object table with an input stream. The stream is read once, from
+     * where it is now to its end. This method will not close the input stream
+     * for you.
+     *
+     * @param is
+     *            Input stream
+     * @return List of objects parsed
+     * @throws IOException
+     *             In case of an error
+     */
+    public List<BPListElement<?>> parseObjectTable(InputStream is) throws IOException {
+        return parse(IOUtils.toByteArray(is));
+    }
+
+    /**
+     * Parse object table from a byte array, without copying it.
      *
-     * @param raf
-     *            Random access file
+     * @param bytes
+     *            The whole bplist
      * @return List of objects parsed
      * @throws IOException
      *             In case of an error
      */
-    private List<BPListElement<?>> parseObjectTable(RandomAccessFile raf) throws IOException {
+    public List<BPListElement<?>> parse(byte[] bytes) throws IOException {
+        return parse(ByteBuffer.wrap(bytes));
+    }
 
+    /**
+     * Parse object table from a memory mapped file.
+     *
+     * @param buffer
+     *            Mapped bplist, from its position to its limit
+     * @return List of objects parsed
+     * @throws IOException
+     *             In case of an error
+     */
+    public List<BPListElement<?>> parse(MappedByteBuffer buffer) throws IOException {
+        return parse((ByteBuffer) buffer);
+    }
+
+    /**
+     * Parse object table from a buffer. The bplist runs from the position of
+     * the buffer to its limit. Header, trailer and offset table are read at
+     * absolute offsets, the buffer itself is left untouched. Objects are
+     * decoded from a view on the same memory the first time they are looked
+     * up, so the buffer must not change while the returned list is in use.
+     *
+     * @param buffer
+     *            Buffer holding the bplist
+     * @return List of objects parsed
+     * @throws IOException
+     *             In case of an error
+     */
+    public List<BPListElement<?>> parse(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        int end = buffer.limit();
+        if (end - start < 40) {
+            throw new IOException("parseHeader: File too small to be a bplist.");
+        }
         // Parse the HEADER
         // ----------------
         // magic number ("bplist")
         // file format version ("00")
-        int bpli = raf.readInt();
-        int st00 = raf.readInt();
+        int bpli = buffer.getInt(start);
+        int st00 = buffer.getInt(start + 4);
         if ((bpli != 0x62706c69) || (st00 != 0x73743030)) {
             throw new IOException("parseHeader: File does not start with 'bplist00' magic.");
         }
@@ -63,88 +111,95 @@ public class ElementParser {
         // byte size of object refs in arrays and dicts
         // number of offsets in offset table (also is number of objects)
         // element # in offset table which is top level object
-        raf.seek(raf.length() - 32);
-        raf.readLong();
-        // count of object refs in arrays and dicts
-        int refCount = (int) raf.readLong();
-        raf.readLong();
-        // element # in offset table which is top level object
-        int topLevelOffset = (int) raf.readLong();
-        raf.seek(8);
+        // offset of the offset table
+        int offsetSize = buffer.get(end - 26) & 0xff;
+        int refSize = buffer.get(end - 25) & 0xff;
+        long objectCount = buffer.getLong(end - 24);
+        long topObject = buffer.getLong(end - 16);
+        long offsetTableOffset = buffer.getLong(end - 8);
+        if (offsetSize < 1 || offsetSize > 4 || refSize < 1 || refSize > 4) {
+            throw new IOException("parseTrailer: unsupported offset size " + offsetSize + " or reference size " + refSize);
+        }
+        if (offsetTableOffset < 8 || objectCount < 1 || offsetTableOffset + objectCount * offsetSize > end - start - 32) {
+            throw new IOException("parseTrailer: offset table outside of the file");
+        }
+        if (topObject < 0 || topObject >= objectCount) {
+            throw new IOException("parseTrailer: top object " + topObject + " outside of the object table");
+        }
 
-        // Read everything in memory hmmmm
-        byte[] buf = new byte[topLevelOffset - 8];
-        raf.readFully(buf);
-        ByteArrayInputStream stream = new ByteArrayInputStream(buf);
+        // the objects sit between the header and the offset table
+        int[] offsets = new int[(int) objectCount];
+        int position = start + (int) offsetTableOffset;
+        for (int i = 0; i < offsets.length; i++) {
+            long offset = 0;
+            for (int j = 0; j < offsetSize; j++) {
+                offset = (offset << 8) | (buffer.get(position++) & 0xff);
+            }
+            if (offset < 8 || offset >= offsetTableOffset) {
+                throw new IOException("parseOffsetTable: object " + i + " outside of the object area");
+            }
+            offsets[i] = start + (int) offset;
+        }
+        ByteBuffer in = buffer.duplicate();
+        in.order(ByteOrder.BIG_ENDIAN);
+        in.limit(start + (int) offsetTableOffset);
+        ObjectTable objectTable = new ObjectTable(this, in, offsets, refSize, (int) topObject);
+        // decoded up front so a broken bplist fails here, everything else waits until it is asked for
+        objectTable.decode((int) topObject);
+        return objectTable;
+    }
 
-        return parseObjectTable(new DataInputStream(stream), refCount);
+    /**
+     * The top level object of an object table. That is the object the trailer
+     * points at, which is not necessarily the first one.
+     *
+     * @param objectTable
+     *            Object table returned by this parser
+     * @return The top level object
+     */
+    public BPListElement<?> getTopObject(List<BPListElement<?>> objectTable) {
+        if (objectTable instanceof ObjectTable) {
+            return objectTable.get(((ObjectTable) objectTable).top());
+        }
+        return objectTable.get(0);
     }
 
     /**
-     * Parse object table with an input stream. This method will not close
-     * the input stream for you.
+     * Walks a bplist held in memory, reporting its objects to the visitor
+     * without building a tree.
      *
-     * @param is
-     *            Input stream
-     * @return List of objects parsed
+     * @param bytes
+     *            The whole bplist
+     * @param visitor
+     *            Visitor receiving the objects
      * @throws IOException
      *             In case of an error
      */
-    public List<BPListElement<?>> parseObjectTable(InputStream is) throws IOException{
-        // mimic using a raf but with a InputStream so that we can read from memory if wanted
-        // supports only input streams that allows reset()
-        //byte[] intBuffer = new byte[4];
-        //byte[] longBuffer = new byte[8];
-        //was going to extend RandomAccessFile but realise I can't initialize it without a real file
-        //assume that everything happens here were in memory or some other InputStream that has no File
-        byte[] readBuffer = new byte[1024];
-        int length = 0;
-        int readSize;
-        is.reset();
-        while((readSize = is.read(readBuffer, 0, 1024)) != -1){
-            length += readSize;
-        }
-        // read bpli and st00 from header
-        is.reset();
-        readSize = is.read(readBuffer, 0, 8);
-        if(readSize != 8){
-            throw new IOException("parseHeader: File too small to be a bplist.");
-        }
-        int bpli = ((readBuffer[0] & 0xFF) << 24) | ((readBuffer[1] & 0xFF) << 16) | ((readBuffer[2] & 0xFF) << 8) | (readBuffer[3] & 0xFF);
-        int st00 = ((readBuffer[4] & 0xFF) << 24) | ((readBuffer[5] & 0xFF) << 16) | ((readBuffer[6] & 0xFF) << 8) | (readBuffer[7] & 0xFF);
-        if ((bpli != 0x62706c69) || (st00 != 0x73743030)) {
-            throw new IOException("parseHeader: File does not start with 'bplist00' magic.");
-        }
-        // read refCount and topLevelOffset from trailer
-        is.reset();
-        is.skip(length - 32);
-        readSize = is.read(readBuffer, 0, 16);
-        if(readSize != 16){
-            throw new IOException("parseHeader: File too small to be a bplist.");
-        }
-        int refCount = ((readBuffer[12] & 0xFF) << 24) | ((readBuffer[13] & 0xFF) << 16) | ((readBuffer[14] & 0xFF) << 8) | (readBuffer[15] & 0xFF);
-        readSize = is.read(readBuffer, 0, 16);
-        if(readSize != 16){
-            throw new IOException("parseHeader: File too small to be a bplist.");
-        }
-        int topLevelOffset = ((readBuffer[12] & 0xFF) << 24) | ((readBuffer[13] & 0xFF) << 16) | ((readBuffer[14] & 0xFF) << 8) | (readBuffer[15] & 0xFF);
-        
-        is.reset();
-        is.skip(8);
-        // read all to memory
-        byte[] buf = new byte[topLevelOffset - 8];
-        readSize = is.read(buf, 0, topLevelOffset - 8);
-        if(readSize != (topLevelOffset - 8)){
-            throw new IOException("parseHeader: File too small to be a bplist.");
-        }
-        ByteArrayInputStream stream = new ByteArrayInputStream(buf);
-        
-        return parseObjectTable(new DataInputStream(stream), refCount);
+    public void walk(byte[] bytes, BPListVisitor visitor) throws IOException {
+        walk(parse(bytes), visitor);
+    }
 
+    /**
+     * Walks an object table depth first from its top level object, reporting
+     * every object to the visitor. Values the visitor skips are not decoded.
+     *
+     * @param objectTable
+     *            Object table returned by this parser
+     * @param visitor
+     *            Visitor receiving the objects
+     * @throws IOException
+     *             In case of an error
+     */
+    public void walk(List<BPListElement<?>> objectTable, BPListVisitor visitor) throws IOException {
+        try {
+            new ElementWalker(visitor).walk(getTopObject(objectTable));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     /**
-     * Object Formats (marker byte followed by additional info in some cases)
+     * Decodes the object starting at position. Object Formats (marker byte followed by additional info in some cases)
      * <ul>
      * <li>null 0000 0000</li>
      * <li>bool 0000 1000 // false</li>
@@ -167,125 +222,84 @@ public class ElementParser {
      * <li>1111 xxxx // unused</li>
      * </ul>
      */
-    private List<BPListElement<?>> parseObjectTable(DataInputStream in, int refCount) throws IOException {
-        List<BPListElement<?>> objectTable = new LinkedList<BPListElement<?>>();
-        int marker;
-        while ((marker = in.read()) != -1) {
-            // System.err.println("parseObjectTable marker=" +
-            // Integer.toBinaryString(marker)+" 0x"+Integer.toHexString(marker)+" @0x"+Long.toHexString(getPosition()));
-            switch ((marker & 0xf0) >> 4) {
-                case 0: {
-                    parseBoolean(marker & 0xf, objectTable);
-                    break;
-                }
-                case 1: {
-                    int count = 1 << (marker & 0xf);
-                    parseInt(in, count, objectTable);
-                    break;
-                }
-                case 2: {
-                    int count = 1 << (marker & 0xf);
-                    parseReal(in, count, objectTable);
-                    break;
-                }
-                case 3: {
-                    switch (marker & 0xf) {
-                        case 3:
-                            parseDate(in, objectTable);
-                            break;
-                        default:
-                            throw new IOException("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
-                    }
-                    break;
-                }
-                case 4: {
-                    int count = marker & 0xf;
-                    if (count == 15) {
-                        count = readCount(in);
-                    }
-                    parseData(in, count, objectTable);
-                    break;
-                }
-                case 5: {
-                    int count = marker & 0xf;
-                    if (count == 15) {
-                        count = readCount(in);
-                    }
-                    parseAsciiString(in, count, objectTable);
-                    break;
-                }
-                case 6: {
-                    int count = marker & 0xf;
-                    if (count == 15) {
-                        count = readCount(in);
-                    }
-                    parseUnicodeString(in, count, objectTable);
-                    break;
-                }
-                case 7: {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
-                    }
-                    return objectTable;
-                    // throw new
-                    // IOException("parseObjectTable: illegal marker "+Integer.toBinaryString(marker));
-                    // break;
-                }
-                case 8: {
-                    int count = (marker & 0xf) + 1;
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("uid " + count);
-                    }
-                    parseUID(in, count, objectTable);
-                    break;
-                }
-                case 9: {
-                    throw new IOException("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
-                    // break;
+    BPListElement<?> parseObjectAt(ByteBuffer in, int position, int refSize, List<BPListElement<?>> objectTable) throws IOException {
+        in.position(position);
+        int marker = in.get() & 0xff;
+        // System.err.println("parseObjectTable marker=" +
+        // Integer.toBinaryString(marker)+" 0x"+Integer.toHexString(marker)+" @0x"+Long.toHexString(getPosition()));
+        return parseObject(in, marker, refSize, objectTable);
+    }
+
+    /**
+     * Decodes the object following marker
+     */
+    private BPListElement<?> parseObject(ByteBuffer in, int marker, int refSize, List<BPListElement<?>> objectTable) throws IOException {
+        switch ((marker & 0xf0) >> 4) {
+            case 0: {
+                return parseBoolean(marker & 0xf);
+            }
+            case 1: {
+                int count = 1 << (marker & 0xf);
+                return parseInt(in, count);
+            }
+            case 2: {
+                int count = 1 << (marker & 0xf);
+                return parseReal(in, count);
+            }
+            case 3: {
+                switch (marker & 0xf) {
+                    case 3:
+                        return parseDate(in);
+                    default:
+                        throw new IOException("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
                 }
-                case 10: {
-                    int count = marker & 0xf;
-                    if (count == 15) {
-                        count = readCount(in);
-                    }
-                    if (refCount > 255) {
-                        parseShortArray(in, count, objectTable);
-                    } else {
-                        parseByteArray(in, count, objectTable);
-                    }
-                    break;
+            }
+            case 4: {
+                int count = marker & 0xf;
+                if (count == 15) {
+                    count = readCount(in);
                 }
-                case 11: {
-                    throw new IOException("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
-                    // break;
+                return parseData(in, count);
+            }
+            case 5: {
+                int count = marker & 0xf;
+                if (count == 15) {
+                    count = readCount(in);
                 }
-                case 12: {
-                    throw new IOException("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
-                    // break;
+                return parseAsciiString(in, count);
+            }
+            case 6: {
+                int count = marker & 0xf;
+                if (count == 15) {
+                    count = readCount(in);
                 }
-                case 13: {
-                    int count = marker & 0xf;
-                    if (count == 15) {
-                        count = readCount(in);
-                    }
-                    if (refCount > 256) {
-                        parseShortDict(in, count, objectTable);
-                    } else {
-                        parseByteDict(in, count, objectTable);
-                    }
-                    break;
+                return parseUnicodeString(in, count);
+            }
+            case 8: {
+                int count = (marker & 0xf) + 1;
+                if (logger.isDebugEnabled()) {
+                    logger.debug("uid " + count);
                 }
-                case 14: {
-                    throw new IOException("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
-                    // break;
+                return parseUID(in, count);
+            }
+            case 10: {
+                int count = marker & 0xf;
+                if (count == 15) {
+                    count = readCount(in);
                 }
-                case 15: {
-                    throw new IOException("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
-                    // break;
+                return parseArray(in, count, refSize, objectTable);
+            }
+            case 13: {
+                int count = marker & 0xf;
+                if (count == 15) {
+                    count = readCount(in);
                 }
+                return parseDict(in, count, refSize, objectTable);
+            }
+            default: {
+                throw new IOException("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
             }
         }
-        return objectTable;
     }
 
     /**
@@ -293,44 +307,36 @@ public class ElementParser {
      * the following scheme:
      * int 0001 nnnn ... // # of bytes is 2^nnnn, big-endian bytes
      */
-    private int readCount(DataInputStream in) throws IOException {
-        int marker = in.read();
-        if (marker == -1) {
+    private int readCount(ByteBuffer in) throws IOException {
+        if (!in.hasRemaining()) {
             throw new IOException("variableLengthInt: Illegal EOF in marker");
         }
+        int marker = in.get() & 0xff;
         if (((marker & 0xf0) >> 4) != 1) {
             throw new IOException("variableLengthInt: Illegal marker " + Integer.toBinaryString(marker));
         }
         int count = 1 << (marker & 0xf);
+        if (in.remaining() < count) {
+            throw new IOException("variableLengthInt: Illegal EOF in value");
+        }
         int value = 0;
         for (int i = 0; i < count; i++) {
-            int b = in.read();
-            if (b == -1) {
-                throw new IOException("variableLengthInt: Illegal EOF in value");
-            }
-            value = (value << 8) | b;
+            value = (value << 8) | (in.get() & 0xff);
         }
         return value;
     }
 
     /**
-     * null 0000 0000 bool 0000 1000 // false bool 0000 1001 // true fill 0000
-     * 1111 // fill byte
+     * null 0000 0000 bool 0000 1000 // false bool 0000 1001 // true
      */
-    private void parseBoolean(int primitive, List<BPListElement<?>> objectTable) throws IOException {
+    private BPListElement<?> parseBoolean(int primitive) throws IOException {
         switch (primitive) {
             case 0:
-                objectTable.add(null);
-                break;
+                return null;
             case 8:
-                objectTable.add(BPListBoolean.FALSE);
-                break;
+                return BPListBoolean.FALSE;
             case 9:
-                objectTable.add(BPListBoolean.TRUE);
-                break;
-            case 15:
-                // fill byte: don't add to object table
-                break;
+                return BPListBoolean.TRUE;
             default:
                 throw new IOException("parsePrimitive: illegal primitive " + Integer.toBinaryString(primitive));
         }
@@ -340,34 +346,28 @@ public class ElementParser {
      * array 1010 nnnn [int] objref* // nnnn is count, unless '1111', then int
      * count follows
      */
-    private void parseByteArray(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
-        int[] objref = new int[count];
-
-        for (int i = 0; i < count; i++) {
-            objref[i] = in.readByte() & 0xff;
-            if (objref[i] == -1) {
-                throw new IOException("parseByteArray: illegal EOF in objref*");
-            }
-        }
-
-        objectTable.add(new BPLArray(objectTable, objref, BPListType.BYTE_ARRAY));
+    private BPListElement<?> parseArray(ByteBuffer in, int count, int refSize, List<BPListElement<?>> objectTable) throws IOException {
+        int[] objref = readRefs(in, count, refSize);
+        return new BPLArray(objectTable, objref, refSize == 1 ? BPListType.BYTE_ARRAY : BPListType.SHORT_ARRAY);
     }
 
     /**
-     * array 1010 nnnn [int] objref* // nnnn is count, unless '1111', then int
-     * count follows
+     * Reads object references, refSize big-endian bytes each as given by the
+     * trailer
      */
-    private void parseShortArray(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
-        int[] objref = new int[count];
-
+    private int[] readRefs(ByteBuffer in, int count, int refSize) throws IOException {
+        if (in.remaining() < (long) count * refSize) {
+            throw new IOException("readRefs: Illegal EOF in " + count + " references");
+        }
+        int[] refs = new int[count];
         for (int i = 0; i < count; i++) {
-            objref[i] = in.readShort() & 0xffff;
-            if (objref[i] == -1) {
-                throw new IOException("parseShortArray: illegal EOF in objref*");
+            int ref = 0;
+            for (int j = 0; j < refSize; j++) {
+                ref = (ref << 8) | (in.get() & 0xff);
             }
+            refs[i] = ref;
         }
-
-        objectTable.add(new BPLArray(objectTable, objref, BPListType.SHORT_ARRAY));
+        return refs;
     }
 
     /*
@@ -375,122 +375,89 @@ public class ElementParser {
      * count follows, followed by bytes
      */
 
-    private void parseData(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
+    private BPListElement<?> parseData(ByteBuffer in, int count) throws IOException {
         byte[] data = new byte[count];
-        in.readFully(data);
-        objectTable.add(new BPListData(data));
+        in.get(data);
+        return new BPListData(data);
     }
 
     /**
-     * byte dict 1101 nnnn keyref* objref* // nnnn is less than '1111'
+     * dict 1101 nnnn [int] keyref* objref* // nnnn is count, unless '1111',
+     * then int count follows
      */
-    private void parseByteDict(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
-        int[]keyref = new int[count];
-        int[]objref = new int[count];
-
-        for (int i = 0; i < count; i++) {
-            keyref[i] = in.readByte() & 0xff;
-        }
-        for (int i = 0; i < count; i++) {
-            objref[i] = in.readByte() & 0xff;
-        }
-        objectTable.add(new BPLDict(objectTable, keyref, objref, BPListType.BYTE_DICT));
-    }
-
-    /**
-     * short dict 1101 ffff int keyref* objref* // int is count
-     */
-    private void parseShortDict(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
-        int[]keyref = new int[count];
-        int[]objref = new int[count];
-
-        for (int i = 0; i < count; i++) {
-            keyref[i] = in.readShort() & 0xffff;
-        }
-        for (int i = 0; i < count; i++) {
-            objref[i] = in.readShort() & 0xffff;
-        }
-        objectTable.add(new BPLDict(objectTable, keyref, objref, BPListType.SHORT_DICT));
+    private BPListElement<?> parseDict(ByteBuffer in, int count, int refSize, List<BPListElement<?>> objectTable) throws IOException {
+        int[] keyref = readRefs(in, count, refSize);
+        int[] objref = readRefs(in, count, refSize);
+        return new BPLDict(objectTable, keyref, objref, refSize == 1 ? BPListType.BYTE_DICT : BPListType.SHORT_DICT);
     }
 
     /**
      * string 0101 nnnn [int] ... // ASCII string, nnnn is # of chars, else 1111
      * then int count, then bytes
      */
-    private void parseAsciiString(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
+    private BPListElement<?> parseAsciiString(ByteBuffer in, int count) throws IOException {
         byte[] buf = new byte[count];
-        in.readFully(buf);
-        objectTable.add(new BPListString(buf));
+        in.get(buf);
+        return new BPListString(buf);
     }
 
-    private void parseUID(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
+    private BPListElement<?> parseUID(ByteBuffer in, int count) throws IOException {
         if (count > 4) {
             throw new IOException("parseUID: unsupported byte count: " + count);
         }
         byte[] uid = new byte[count];
-        in.readFully(uid);
-        objectTable.add(new BPLUid(new BigInteger(uid).intValue()));
+        in.get(uid);
+        // unsigned, a one byte UID of 0x80 is 128
+        return new BPLUid(new BigInteger(1, uid).intValue());
     }
 
     /**
      * int 0001 nnnn ... // # of bytes is 2^nnnn, big-endian bytes
      */
-    private void parseInt(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
+    private BPListElement<?> parseInt(ByteBuffer in, int count) throws IOException {
         if (count > 8) {
             throw new IOException("parseInt: unsupported byte count: " + count);
         }
+        if (in.remaining() < count) {
+            throw new IOException("parseInt: Illegal EOF in value");
+        }
         long value = 0;
         for (int i = 0; i < count; i++) {
-            int b = in.read();
-            if (b == -1) {
-                throw new IOException("parseInt: Illegal EOF in value");
-            }
-            value = (value << 8) | b;
+            value = (value << 8) | (in.get() & 0xff);
         }
-        objectTable.add(new BPListLong(value));
+        return new BPListLong(value);
     }
 
     /**
      * real 0010 nnnn ... // # of bytes is 2^nnnn, big-endian bytes
      */
-    private void parseReal(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
+    private BPListElement<?> parseReal(ByteBuffer in, int count) throws IOException {
         switch (count) {
             case 4:
-                objectTable.add(new BPListFloat(in.readFloat()));
-                break;
+                return new BPListFloat(in.getFloat());
             case 8:
-                objectTable.add(new BPListDouble(in.readDouble()));
-                break;
+                return new BPListDouble(in.getDouble());
             default:
                 throw new IOException("parseReal: unsupported byte count:" + count);
         }
     }
 
-    /**
-     * unknown 0011 0000 ... // 8 byte float follows, big-endian bytes
-     */
-    /*
-     * private void parseUnknown(DataInputStream in) throws IOException {
-     * in.skipBytes(1); objectTable.add("unknown"); }
-     */
-
     /**
      * date 0011 0011 ... // 8 byte float follows, big-endian bytes
      */
-    private void parseDate(DataInputStream in, List<BPListElement<?>> objectTable) throws IOException {
-        objectTable.add(new BPListDate(in.readDouble()));
+    private BPListElement<?> parseDate(ByteBuffer in) throws IOException {
+        return new BPListDate(in.getDouble());
     }
 
     /**
      * string 0110 nnnn [int] ... // Unicode string, nnnn is # of chars, else
      * 1111 then int count, then big-endian 2-byte shorts
      */
-    private void parseUnicodeString(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
+    private BPListElement<?> parseUnicodeString(ByteBuffer in, int count) throws IOException {
         char[] buf = new char[count];
-        for (int i = 0; i < count; i++) {
-            buf[i] = in.readChar();
-        }
-        objectTable.add(new BPListString(buf));
+        in.asCharBuffer().get(buf);
+        in.position(in.position() + count * 2);
+        return new BPListString(buf);
     }
 
 }
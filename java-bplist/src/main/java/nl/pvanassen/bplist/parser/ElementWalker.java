@@ -0,0 +1,88 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.*;
+import java.util.*;
+
+import nl.pvanassen.bplist.BPListVisitor;
+
+/**
+ * Reports an object graph to a visitor, depth first. Nothing is built on the
+ * way, dict and array entries are looked up one at a time so skipped values
+ * are never decoded.
+ */
+final class ElementWalker {
+
+    private final BPListVisitor visitor;
+    /** Containers being walked, a container inside itself would never end */
+    private final Set<BPListElement<?>> path = Collections.newSetFromMap(new IdentityHashMap<BPListElement<?>, Boolean>());
+
+    ElementWalker(BPListVisitor visitor) {
+        super();
+        this.visitor = visitor;
+    }
+
+    void walk(BPListElement<?> object) throws IOException {
+        if (object == null) {
+            visitor.nullValue();
+            return;
+        }
+        switch (object.getType()) {
+            case SHORT_DICT:
+            case BYTE_DICT: {
+                BPLDict dict = (BPLDict) enter(object);
+                visitor.startDict(dict.size());
+                for (int i = 0; i < dict.size(); i++) {
+                    if (visitor.key(dict.key(i).getValue().toString())) {
+                        walk(dict.value(i));
+                    }
+                }
+                visitor.endDict();
+                path.remove(object);
+                break;
+            }
+            case SHORT_ARRAY:
+            case BYTE_ARRAY: {
+                BPLArray array = (BPLArray) enter(object);
+                visitor.startArray(array.size());
+                for (int i = 0; i < array.size(); i++) {
+                    walk(array.get(i));
+                }
+                visitor.endArray();
+                path.remove(object);
+                break;
+            }
+            case ASCII_STRING:
+            case UNICODE_STRING:
+                visitor.string((String) object.getValue());
+                break;
+            case LONG:
+                visitor.integer((Long) object.getValue());
+                break;
+            case FLOAT:
+            case DOUBLE:
+                visitor.real(((Number) object.getValue()).doubleValue());
+                break;
+            case BOOLEAN:
+                visitor.bool((Boolean) object.getValue());
+                break;
+            case DATE:
+                visitor.date((Date) object.getValue());
+                break;
+            case DATA:
+                visitor.data((byte[]) object.getValue());
+                break;
+            case UID:
+                visitor.uid((Integer) object.getValue());
+                break;
+            default:
+                throw new IOException("walk: unsupported type " + object.getType());
+        }
+    }
+
+    private BPListElement<?> enter(BPListElement<?> container) throws IOException {
+        if (!path.add(container)) {
+            throw new IOException("walk: container references itself");
+        }
+        return container;
+    }
+}
@@ -0,0 +1,228 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Resolver for NSKeyedArchiver archives. Every archived object sits in the
+ * $objects array and objects refer to each other with UIDs, which are indexes
+ * into $objects. $top names the root objects, usually under "root". UID 0 is
+ * $null.
+ * <p>
+ * Following a UID is one indexed lookup in the object table, which decodes an
+ * object the first time it is reached and keeps it. Nothing is scanned.
+ */
+public class KeyedArchive {
+
+    private final BPLArray objects;
+    private final BPLDict top;
+
+    /**
+     * @param root
+     *            Top level object of the bplist
+     * @throws IOException
+     *             If it is not a keyed archive
+     */
+    public KeyedArchive(BPListElement<?> root) throws IOException {
+        super();
+        if (!(root instanceof BPLDict)) {
+            throw new IOException("KeyedArchive: top level object is not a dict");
+        }
+        BPListElement<?> objects = ((BPLDict) root).get("$objects");
+        BPListElement<?> top = ((BPLDict) root).get("$top");
+        if (!(objects instanceof BPLArray) || !(top instanceof BPLDict)) {
+            throw new IOException("KeyedArchive: $objects or $top missing");
+        }
+        this.objects = (BPLArray) objects;
+        this.top = (BPLDict) top;
+    }
+
+    /**
+     * Parses a keyed archive held in memory
+     *
+     * @param parser
+     *            Parser to use
+     * @param bytes
+     *            The whole bplist
+     * @return The archive
+     * @throws IOException
+     *             If the bytes are not a keyed archive
+     */
+    public static KeyedArchive parse(ElementParser parser, byte[] bytes) throws IOException {
+        return new KeyedArchive(parser.getTopObject(parser.parse(bytes)));
+    }
+
+    /**
+     * @return Number of objects in $objects
+     */
+    public int size() {
+        return objects.size();
+    }
+
+    /**
+     * @param uid
+     *            Index into $objects
+     * @return The object, null for $null
+     * @throws IOException
+     *             If the UID is outside of $objects
+     */
+    public BPListElement<?> object(int uid) throws IOException {
+        if (uid < 0 || uid >= objects.size()) {
+            throw new IOException("KeyedArchive: UID " + uid + " outside of $objects of " + objects.size());
+        }
+        if (uid == 0) {
+            return null;
+        }
+        return objects.get(uid);
+    }
+
+    /**
+     * @param value
+     *            Any value of the archive
+     * @return The UID it holds, -1 if it is not a UID
+     */
+    public int uid(BPListElement<?> value) {
+        if (value != null && value.getType() == BPListType.UID) {
+            return (Integer) value.getValue();
+        }
+        return -1;
+    }
+
+    /**
+     * Follows a UID into $objects, any other value is returned as it is
+     *
+     * @param value
+     *            Any value of the archive
+     * @return The object referred to, null for $null
+     * @throws IOException
+     *             If the UID is outside of $objects
+     */
+    public BPListElement<?> resolve(BPListElement<?> value) throws IOException {
+        int uid = uid(value);
+        return uid < 0 ? value : object(uid);
+    }
+
+    /**
+     * @param key
+     *            Name of a root object, "root" for archivedDataWithRootObject
+     * @return The root object, null if there is none
+     * @throws IOException
+     *             If its UID is outside of $objects
+     */
+    public BPListElement<?> top(String key) throws IOException {
+        return resolve(top.get(key));
+    }
+
+    /**
+     * @param key
+     *            Name of a root object
+     * @return Its UID, -1 if there is none
+     */
+    public int topUid(String key) {
+        return uid(top.get(key));
+    }
+
+    /**
+     * Looks up a key of an archived object
+     *
+     * @param object
+     *            Archived object, a dict
+     * @param key
+     *            Key
+     * @return The value with UIDs followed, null if missing, $null or the
+     *         object is not a dict
+     * @throws IOException
+     *             If a UID is outside of $objects
+     */
+    public BPListElement<?> get(BPListElement<?> object, String key) throws IOException {
+        if (!(object instanceof BPLDict)) {
+            return null;
+        }
+        return resolve(((BPLDict) object).get(key));
+    }
+
+    /**
+     * The values of an archived object as they are stored, in the order of its
+     * dict. UIDs are not followed, see {@link #uid} and {@link #resolve}.
+     * Entries are read one by one, no map of the dict is built.
+     *
+     * @param object
+     *            Archived object, a dict
+     * @return The values, empty if the object is not a dict
+     */
+    public List<BPListElement<?>> values(BPListElement<?> object) {
+        if (!(object instanceof BPLDict)) {
+            return Collections.emptyList();
+        }
+        BPLDict dict = (BPLDict) object;
+        List<BPListElement<?>> values = new ArrayList<BPListElement<?>>(dict.size());
+        for (int i = 0; i < dict.size(); i++) {
+            values.add(dict.value(i));
+        }
+        return values;
+    }
+
+    /**
+     * Looks up a string, plain or archived as NSString with NS.string
+     *
+     * @param object
+     *            Archived object, a dict
+     * @param key
+     *            Key
+     * @return The string, null if missing or not a string
+     * @throws IOException
+     *             If a UID is outside of $objects
+     */
+    public String getString(BPListElement<?> object, String key) throws IOException {
+        return string(get(object, key));
+    }
+
+    /**
+     * @param value
+     *            Resolved value
+     * @return The string, plain or archived as NSString, null for anything else
+     * @throws IOException
+     *             If a UID is outside of $objects
+     */
+    public String string(BPListElement<?> value) throws IOException {
+        if (value == null) {
+            return null;
+        }
+        if (value.getType() == BPListType.ASCII_STRING || value.getType() == BPListType.UNICODE_STRING) {
+            return (String) value.getValue();
+        }
+        if (value instanceof BPLDict) {
+            return string(get(value, "NS.string"));
+        }
+        return null;
+    }
+
+    /**
+     * Looks up an NSArray or NSSet, whose elements are the UIDs under
+     * NS.objects
+     *
+     * @param object
+     *            Archived object, a dict
+     * @param key
+     *            Key
+     * @return The elements with UIDs followed, null if missing or not an
+     *         array
+     * @throws IOException
+     *             If a UID is outside of $objects
+     */
+    public List<BPListElement<?>> getArray(BPListElement<?> object, String key) throws IOException {
+        BPListElement<?> array = get(object, key);
+        if (array instanceof BPLDict) {
+            array = get(array, "NS.objects");
+        }
+        if (!(array instanceof BPLArray)) {
+            return null;
+        }
+        BPLArray elements = (BPLArray) array;
+        List<BPListElement<?>> resolved = new ArrayList<BPListElement<?>>(elements.size());
+        for (int i = 0; i < elements.size(); i++) {
+            resolved.add(resolve(elements.get(i)));
+        }
+        return resolved;
+    }
+}
@@ -0,0 +1,95 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Lazily decoded object table. The offset table of the bplist says where every
+ * object starts, so an object is decoded the first time it is asked for and
+ * kept from then on. Looking up two keys in a large archive decodes a handful
+ * of objects instead of all of them.
+ * <p>
+ * Read only for everyone but the parser, lookups take constant time. Not
+ * thread safe, decoding moves the position of the shared buffer view.
+ */
+final class ObjectTable extends AbstractList<BPListElement<?>> implements RandomAccess {
+
+    private final ElementParser parser;
+    private final ByteBuffer in;
+    private final int[] offsets;
+    private final int refSize;
+    private final int top;
+    private final BPListElement<?>[] objects;
+    private final boolean[] decoded;
+    private int decodedCount;
+
+    /**
+     * @param parser Parser decoding the objects
+     * @param in Big endian view on the object area of the bplist
+     * @param offsets Position of every object in the view
+     * @param refSize Byte size of object references in arrays and dicts
+     * @param top Reference of the top level object
+     */
+    ObjectTable(ElementParser parser, ByteBuffer in, int[] offsets, int refSize, int top) {
+        super();
+        this.parser = parser;
+        this.in = in;
+        this.offsets = offsets;
+        this.refSize = refSize;
+        this.top = top;
+        objects = new BPListElement<?>[offsets.length];
+        decoded = new boolean[offsets.length];
+    }
+
+    /**
+     * Decodes an object unless that happened before
+     *
+     * @param index Object reference
+     * @return The object, null for a bplist null
+     * @throws IOException If the object is malformed
+     */
+    BPListElement<?> decode(int index) throws IOException {
+        if (index < 0 || index >= objects.length) {
+            throw new IOException("Object reference " + index + " outside of the object table of " + objects.length);
+        }
+        if (!decoded[index]) {
+            try {
+                objects[index] = parser.parseObjectAt(in, offsets[index], refSize, this);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("parseObjectTable: object " + index + " runs past the offset table", e);
+            }
+            decoded[index] = true;
+            decodedCount++;
+        }
+        return objects[index];
+    }
+
+    /**
+     * @return Reference of the top level object from the trailer
+     */
+    int top() {
+        return top;
+    }
+
+    /**
+     * @return How many objects have been decoded so far
+     */
+    int decodedCount() {
+        return decodedCount;
+    }
+
+    @Override
+    public BPListElement<?> get(int index) {
+        try {
+            return decode(index);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return objects.length;
+    }
+}
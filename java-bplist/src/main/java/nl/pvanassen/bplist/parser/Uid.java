@@ -0,0 +1,36 @@
+package nl.pvanassen.bplist.parser;
+
+/**
+ * A UID value, keyed archives use them as indexes into $objects
+ */
+public final class Uid {
+
+    private final int value;
+
+    public Uid(int value) {
+        super();
+        this.value = value;
+    }
+
+    /**
+     * @return The index it holds
+     */
+    public int getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Uid && ((Uid) other).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "Uid{" + value + "}";
+    }
+}
@@ -0,0 +1,125 @@
+package nl.pvanassen.bplist;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import nl.pvanassen.bplist.parser.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class BPListVisitorTest {
+    private final ElementParser elementParser = new ElementParser();
+
+    /**
+     * Writes every event down, skipping the values of the given keys
+     */
+    private static class Recorder implements BPListVisitor {
+        private final StringBuilder events = new StringBuilder();
+        private final Set<String> skip;
+
+        Recorder(String... skip) {
+            this.skip = new HashSet<String>(Arrays.asList(skip));
+        }
+
+        public void startDict(int size) {
+            events.append("{").append(size).append(' ');
+        }
+
+        public boolean key(String key) {
+            events.append(key).append('=');
+            return !skip.contains(key);
+        }
+
+        public void endDict() {
+            events.append("} ");
+        }
+
+        public void startArray(int size) {
+            events.append("[").append(size).append(' ');
+        }
+
+        public void endArray() {
+            events.append("] ");
+        }
+
+        public void string(String value) {
+            events.append('"').append(value).append("\" ");
+        }
+
+        public void integer(long value) {
+            events.append(value).append(' ');
+        }
+
+        public void real(double value) {
+            events.append(value).append(' ');
+        }
+
+        public void bool(boolean value) {
+            events.append(value).append(' ');
+        }
+
+        public void date(Date value) {
+            events.append("date ");
+        }
+
+        public void data(byte[] value) {
+            events.append("data").append(value.length).append(' ');
+        }
+
+        public void uid(int value) {
+            events.append("uid").append(value).append(' ');
+        }
+
+        public void nullValue() {
+            events.append("null ");
+        }
+    }
+
+    private Map<String, Object> sample() {
+        Map<String, Object> root = new LinkedHashMap<String, Object>();
+        root.put("string", "text");
+        root.put("integer", 42L);
+        root.put("real", 1.5);
+        root.put("bool", Boolean.TRUE);
+        root.put("data", new byte[] { 1, 2, 3 });
+        root.put("date", new BPListWriter.Date(0));
+        root.put("uid", new BPListWriter.Uid(7));
+        root.put("array", Arrays.asList(null, "element", Collections.emptyMap()));
+        return root;
+    }
+
+    @Test
+    public void testEvents() throws IOException {
+        Recorder recorder = new Recorder();
+        elementParser.walk(BPListWriter.write(sample()), recorder);
+        assertEquals("{8 string=\"text\" integer=42 real=1.5 bool=true data=data3 date=date uid=uid7 array=[3 null \"element\" {0 } ] } ",
+                recorder.events.toString());
+    }
+
+    @Test
+    public void testSkippedValues() throws IOException {
+        Recorder recorder = new Recorder("array", "data");
+        elementParser.walk(BPListWriter.write(sample()), recorder);
+        assertEquals("{8 string=\"text\" integer=42 real=1.5 bool=true data=date=date uid=uid7 array=} ", recorder.events.toString());
+    }
+
+    @Test
+    public void testKeyedArchive() throws IOException {
+        Recorder recorder = new Recorder();
+        byte[] bytes = Files.readAllBytes(FileHelper.getFile("uid.bplist").toPath());
+        elementParser.walk(bytes, recorder);
+        String events = recorder.events.toString();
+        assertTrue(events.startsWith("{"));
+        assertTrue(events.contains("$objects=["));
+        assertTrue(events.contains("uid"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testContainerInsideItself() throws IOException {
+        Map<String, Object> root = new LinkedHashMap<String, Object>();
+        root.put("self", root);
+        elementParser.walk(BPListWriter.write(root), new Recorder());
+    }
+}
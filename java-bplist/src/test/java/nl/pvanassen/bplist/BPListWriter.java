@@ -0,0 +1,205 @@
+package nl.pvanassen.bplist;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes bplist00 bytes for tests. Objects are numbered breadth first from the
+ * root, which becomes object 0 like NSKeyedArchiver output. Equal strings and
+ * identical objects are written once, so shared references stay shared.
+ */
+public class BPListWriter {
+
+    /**
+     * Keyed archiver reference
+     */
+    public static final class Uid {
+        private final int value;
+
+        public Uid(int value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * A date, seconds since 2001-01-01
+     */
+    public static final class Date {
+        private final double value;
+
+        public Date(double value) {
+            this.value = value;
+        }
+    }
+
+    private final List<Object> objects = new ArrayList<Object>();
+    private final Map<Object, Integer> ids = new IdentityHashMap<Object, Integer>();
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+    private int nullId = -1;
+    private int refSize;
+
+    private BPListWriter() {
+    }
+
+    public static byte[] write(Object root) throws IOException {
+        return new BPListWriter().encode(root);
+    }
+
+    private byte[] encode(Object root) throws IOException {
+        LinkedList<Object> queue = new LinkedList<Object>();
+        id(root, queue);
+        while (!queue.isEmpty()) {
+            Object value = queue.removeFirst();
+            if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                for (Object key : map.keySet()) {
+                    id(key, queue);
+                }
+                for (Object child : map.values()) {
+                    id(child, queue);
+                }
+            } else if (value instanceof List) {
+                for (Object child : (List<?>) value) {
+                    id(child, queue);
+                }
+            }
+        }
+        refSize = objects.size() > 0xff ? 2 : 1;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBytes("bplist00");
+        long[] offsets = new long[objects.size()];
+        for (int i = 0; i < objects.size(); i++) {
+            offsets[i] = out.size();
+            writeObject(out, objects.get(i));
+        }
+        long offsetTable = out.size();
+        int offsetSize = offsetTable > 0xffff ? 4 : offsetTable > 0xff ? 2 : 1;
+        for (long offset : offsets) {
+            writeSized(out, offset, offsetSize);
+        }
+        out.write(new byte[6]);
+        out.writeByte(offsetSize);
+        out.writeByte(refSize);
+        out.writeLong(objects.size());
+        out.writeLong(0);
+        out.writeLong(offsetTable);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private int id(Object value, LinkedList<Object> queue) {
+        if (value instanceof String) {
+            Integer id = strings.get(value);
+            if (id != null) {
+                return id;
+            }
+            strings.put((String) value, objects.size());
+        } else if (value != null) {
+            Integer id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            ids.put(value, objects.size());
+        } else if (nullId >= 0) {
+            return nullId;
+        } else {
+            nullId = objects.size();
+        }
+        objects.add(value);
+        queue.add(value);
+        return objects.size() - 1;
+    }
+
+    private int ref(Object value) {
+        if (value instanceof String) {
+            return strings.get(value);
+        }
+        if (value == null) {
+            return nullId;
+        }
+        return ids.get(value);
+    }
+
+    private void writeObject(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(0x00);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? 0x09 : 0x08);
+        } else if (value instanceof Long || value instanceof Integer) {
+            writeInt(out, ((Number) value).longValue());
+        } else if (value instanceof Double) {
+            out.writeByte(0x23);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Date) {
+            out.writeByte(0x33);
+            out.writeDouble(((Date) value).value);
+        } else if (value instanceof byte[]) {
+            byte[] data = (byte[]) value;
+            writeMarker(out, 0x40, data.length);
+            out.write(data);
+        } else if (value instanceof String) {
+            String string = (String) value;
+            if (string.chars().allMatch(c -> c < 0x80)) {
+                writeMarker(out, 0x50, string.length());
+                out.writeBytes(string);
+            } else {
+                writeMarker(out, 0x60, string.length());
+                out.writeChars(string);
+            }
+        } else if (value instanceof Uid) {
+            int uid = ((Uid) value).value;
+            int size = uid < 0x100 ? 1 : uid < 0x10000 ? 2 : 4;
+            out.writeByte(0x80 | (size - 1));
+            writeSized(out, uid, size);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            writeMarker(out, 0xa0, list.size());
+            for (Object child : list) {
+                writeSized(out, ref(child), refSize);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            writeMarker(out, 0xd0, map.size());
+            for (Object key : map.keySet()) {
+                writeSized(out, ref(key), refSize);
+            }
+            for (Object child : map.values()) {
+                writeSized(out, ref(child), refSize);
+            }
+        } else {
+            throw new IOException("Can't write " + value.getClass());
+        }
+    }
+
+    private void writeMarker(DataOutputStream out, int marker, int count) throws IOException {
+        if (count < 15) {
+            out.writeByte(marker | count);
+        } else {
+            out.writeByte(marker | 0xf);
+            writeInt(out, count);
+        }
+    }
+
+    private void writeInt(DataOutputStream out, long value) throws IOException {
+        if (value >= 0 && value <= 0xff) {
+            out.writeByte(0x10);
+            writeSized(out, value, 1);
+        } else if (value >= 0 && value <= 0xffff) {
+            out.writeByte(0x11);
+            writeSized(out, value, 2);
+        } else if (value >= 0 && value <= 0x7fffffffL) {
+            out.writeByte(0x12);
+            writeSized(out, value, 4);
+        } else {
+            out.writeByte(0x13);
+            out.writeLong(value);
+        }
+    }
+
+    private void writeSized(DataOutputStream out, long value, int size) throws IOException {
+        for (int i = size - 1; i >= 0; i--) {
+            out.writeByte((int) (value >> (i * 8)));
+        }
+    }
+}
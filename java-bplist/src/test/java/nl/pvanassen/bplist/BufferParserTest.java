@@ -0,0 +1,68 @@
+package nl.pvanassen.bplist;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+import nl.pvanassen.bplist.converter.ConvertToXml;
+import nl.pvanassen.bplist.parser.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class BufferParserTest {
+    private final ConvertToXml convetToXml = new ConvertToXml();
+    private final ElementParser elementParser = new ElementParser();
+
+    private void test(String baseName) throws IOException {
+        File file = FileHelper.getFile(baseName + ".bplist");
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        String expected = convetToXml.convertToXml(elementParser.parseObjectTable(file)).toString();
+
+        assertEquals(expected, convetToXml.convertToXml(bytes).toString());
+        assertEquals(expected, convetToXml.convertToXml(elementParser.parse(bytes)).toString());
+
+        // the bplist in the middle of a larger buffer
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 20);
+        buffer.position(7);
+        buffer.put(bytes);
+        buffer.position(7);
+        buffer.limit(7 + bytes.length);
+        assertEquals(expected, convetToXml.convertToXml(elementParser.parse(buffer)).toString());
+        assertEquals(7, buffer.position());
+        assertEquals(7 + bytes.length, buffer.limit());
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            assertEquals(expected, convetToXml.convertToXml(elementParser.parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()))).toString());
+        }
+    }
+
+    @Test
+    public void testAirplay() throws IOException {
+        test("airplay");
+    }
+
+    @Test
+    public void testSample1() throws IOException {
+        test("sample1");
+    }
+
+    @Test
+    public void testUID() throws IOException {
+        test("uid");
+    }
+
+    @Test
+    public void testUTF16() throws IOException {
+        test("utf16");
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        byte[] bytes = Files.readAllBytes(FileHelper.getFile("sample1.bplist").toPath());
+        byte[] truncated = new byte[bytes.length - 40];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        elementParser.parse(truncated);
+    }
+}
@@ -0,0 +1,76 @@
+package nl.pvanassen.bplist;
+
+import java.io.*;
+import java.util.*;
+
+import nl.pvanassen.bplist.parser.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class ConvertToJavaTest {
+    private final ConvertToJava convertToJava = new ConvertToJava();
+    private final ElementParser elementParser = new ElementParser();
+
+    @Test
+    public void testTypes() throws IOException {
+        Map<String, Object> root = new LinkedHashMap<String, Object>();
+        root.put("string", "text");
+        root.put("unicode", "caf\u00e9");
+        root.put("integer", 42L);
+        root.put("real", 1.5);
+        root.put("bool", Boolean.FALSE);
+        root.put("data", new byte[] { 1, 2, 3 });
+        root.put("date", new BPListWriter.Date(0));
+        root.put("uid", new BPListWriter.Uid(7));
+        root.put("array", Arrays.asList(null, "element"));
+
+        Map<?, ?> map = (Map<?, ?>) convertToJava.convertToJava(BPListWriter.write(root));
+        assertTrue(map instanceof LinkedHashMap);
+        // the order of the bplist
+        assertEquals(new ArrayList<String>(root.keySet()), new ArrayList<Object>(map.keySet()));
+        assertEquals("text", map.get("string"));
+        assertEquals("caf\u00e9", map.get("unicode"));
+        assertEquals(42L, map.get("integer"));
+        assertEquals(1.5, map.get("real"));
+        assertEquals(Boolean.FALSE, map.get("bool"));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) map.get("data"));
+        assertTrue(map.get("date") instanceof Date);
+        assertEquals(new Uid(7), map.get("uid"));
+        assertEquals(7, ((Uid) map.get("uid")).getValue());
+        assertTrue(map.get("array") instanceof ArrayList);
+        assertEquals(Arrays.asList(null, "element"), map.get("array"));
+    }
+
+    @Test
+    public void testSharedReferences() throws IOException {
+        List<Object> shared = Arrays.<Object> asList("a", "b");
+        byte[] data = new byte[] { 9 };
+        Map<String, Object> root = new LinkedHashMap<String, Object>();
+        root.put("first", shared);
+        root.put("second", shared);
+        root.put("data", Arrays.asList(data, data));
+        root.put("self", root);
+
+        Map<?, ?> map = (Map<?, ?>) convertToJava.convertToJava(BPListWriter.write(root));
+        assertSame(map.get("first"), map.get("second"));
+        List<?> datas = (List<?>) map.get("data");
+        assertSame(datas.get(0), datas.get(1));
+        assertSame(map, map.get("self"));
+    }
+
+    @Test
+    public void testAgainstParser() throws IOException {
+        File file = FileHelper.getFile("sample1.bplist");
+        @SuppressWarnings("unchecked")
+        Map<String, BPListElement<?>> dict = (Map<String, BPListElement<?>>) elementParser.getTopObject(elementParser.parseObjectTable(file)).getValue();
+        Map<?, ?> map = (Map<?, ?>) convertToJava.convertToJava(file);
+        assertEquals(dict.keySet(), map.keySet());
+        for (Map.Entry<String, BPListElement<?>> entry : dict.entrySet()) {
+            Object value = entry.getValue() == null ? null : entry.getValue().getValue();
+            if (value instanceof String || value instanceof Long || value instanceof Boolean) {
+                assertEquals(value, map.get(entry.getKey()));
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.*;
+import java.util.*;
+
+import nl.pvanassen.bplist.BPListWriter;
+import nl.pvanassen.bplist.BPListWriter.Uid;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class KeyedArchiveTest {
+    private final ElementParser elementParser = new ElementParser();
+
+    private static Map<String, Object> dict(Object... entries) {
+        Map<String, Object> dict = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < entries.length; i += 2) {
+            dict.put((String) entries[i], entries[i + 1]);
+        }
+        return dict;
+    }
+
+    /**
+     * Media metadata of a reply mentioning two people, laid out the way
+     * NSKeyedArchiver writes it
+     */
+    private byte[] archive() throws IOException {
+        List<Object> objects = new ArrayList<Object>();
+        objects.add("$null");
+        objects.add(dict("mentions", new Uid(2), "quotedMessageData", new Uid(5), "author", new Uid(0), "$class", new Uid(7)));
+        objects.add(dict("NS.objects", Arrays.asList(new Uid(3), new Uid(4)), "$class", new Uid(6)));
+        objects.add("111@s.whatsapp.net");
+        objects.add("222@s.whatsapp.net");
+        objects.add(dict("NS.string", "3EB0C0FFEE"));
+        objects.add(dict("$classname", "NSArray", "$classes", Arrays.asList("NSArray", "NSObject")));
+        objects.add(dict("$classname", "WAMediaItemMetadata", "$classes", Arrays.asList("WAMediaItemMetadata", "NSObject")));
+        return BPListWriter.write(dict("$version", 100000L, "$archiver", "NSKeyedArchiver", "$top", dict("root", new Uid(1)), "$objects", objects));
+    }
+
+    @Test
+    public void testResolvesThroughUids() throws IOException {
+        KeyedArchive archive = KeyedArchive.parse(elementParser, archive());
+        assertEquals(8, archive.size());
+        assertEquals(1, archive.topUid("root"));
+        BPListElement<?> root = archive.top("root");
+        assertSame(archive.object(1), root);
+
+        List<BPListElement<?>> mentions = archive.getArray(root, "mentions");
+        assertEquals(2, mentions.size());
+        assertEquals("111@s.whatsapp.net", archive.string(mentions.get(0)));
+        assertEquals("222@s.whatsapp.net", archive.string(mentions.get(1)));
+        // archived NSString
+        assertEquals("3EB0C0FFEE", archive.getString(root, "quotedMessageData"));
+        // UID 0 is $null
+        assertNull(archive.get(root, "author"));
+        assertNull(archive.get(root, "missing"));
+        assertNull(archive.getArray(root, "quotedMessageData"));
+        assertEquals("NSArray", archive.getString(archive.get(archive.object(2), "$class"), "$classname"));
+    }
+
+    @Test
+    public void testValues() throws IOException {
+        KeyedArchive archive = KeyedArchive.parse(elementParser, archive());
+        List<BPListElement<?>> values = archive.values(archive.top("root"));
+        // mentions, quotedMessageData, author and $class in the order they were archived
+        assertEquals(4, values.size());
+        assertEquals(2, archive.uid(values.get(0)));
+        assertEquals("3EB0C0FFEE", archive.string(archive.resolve(values.get(1))));
+        assertEquals(0, archive.uid(values.get(2)));
+        assertEquals("WAMediaItemMetadata", archive.getString(archive.resolve(values.get(3)), "$classname"));
+        assertTrue(archive.values(archive.object(3)).isEmpty());
+    }
+
+    @Test
+    public void testDecodesOnlyTheObjectsFollowed() throws IOException {
+        ObjectTable objectTable = (ObjectTable) elementParser.parse(archive());
+        KeyedArchive archive = new KeyedArchive(elementParser.getTopObject(objectTable));
+        int before = objectTable.decodedCount();
+        archive.getString(archive.top("root"), "quotedMessageData");
+        // root dict with its keys and values, the NSString dict with its key and value
+        assertTrue(objectTable.decodedCount() - before < 16);
+        assertTrue(objectTable.decodedCount() < objectTable.size());
+    }
+
+    @Test
+    public void testOneByteUidIsUnsigned() throws IOException {
+        List<Object> objects = new ArrayList<Object>();
+        objects.add("$null");
+        objects.add(dict("last", new Uid(200)));
+        for (int i = 2; i < 200; i++) {
+            objects.add("filler" + i);
+        }
+        objects.add("object 200");
+        byte[] bytes = BPListWriter.write(dict("$top", dict("root", new Uid(1)), "$objects", objects));
+        // written as one byte, 0xc8
+        boolean oneByte = false;
+        for (int i = 0; i + 1 < bytes.length; i++) {
+            oneByte |= bytes[i] == (byte) 0x80 && bytes[i + 1] == (byte) 0xc8;
+        }
+        assertTrue(oneByte);
+        KeyedArchive archive = KeyedArchive.parse(elementParser, bytes);
+        BPListElement<?> root = archive.top("root");
+        assertEquals(200, archive.uid(((BPLDict) root).get("last")));
+        assertEquals("object 200", archive.getString(root, "last"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUidOutsideOfObjects() throws IOException {
+        KeyedArchive.parse(elementParser, archive()).object(8);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAKeyedArchive() throws IOException {
+        KeyedArchive.parse(elementParser, BPListWriter.write(dict("key", "value")));
+    }
+}
@@ -0,0 +1,112 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import nl.pvanassen.bplist.BPListWriter;
+import nl.pvanassen.bplist.converter.ConvertToXml;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class LazyDecodingTest {
+    private final ElementParser elementParser = new ElementParser();
+
+    @Test
+    public void testDecodesOnlyWhatIsLookedUp() throws IOException {
+        List<Object> objects = new ArrayList<Object>();
+        for (int i = 0; i < 2000; i++) {
+            objects.add("object" + i);
+        }
+        Map<String, Object> root = new LinkedHashMap<String, Object>();
+        root.put("mentions", "jid");
+        root.put("$objects", objects);
+        ObjectTable objectTable = (ObjectTable) elementParser.parse(BPListWriter.write(root));
+        assertEquals(2005, objectTable.size());
+        // only the top object is decoded while parsing
+        assertEquals(1, objectTable.decodedCount());
+
+        @SuppressWarnings("unchecked")
+        Map<String, BPListElement<?>> dict = (Map<String, BPListElement<?>>) elementParser.getTopObject(objectTable).getValue();
+        assertEquals("jid", dict.get("mentions").getValue());
+        // two keys and two values, the array is decoded but none of its strings
+        assertEquals(5, objectTable.decodedCount());
+
+        List<?> array = (List<?>) dict.get("$objects").getValue();
+        assertEquals(2000, array.size());
+        assertEquals(2005, objectTable.decodedCount());
+        // decoded objects are kept
+        assertSame(objectTable.get(4), objectTable.get(4));
+    }
+
+    @Test
+    public void testTopObjectFromTrailer() throws IOException {
+        Map<String, Object> dict = new LinkedHashMap<String, Object>();
+        dict.put("key", "value");
+        // the list is object 0, "a" object 1 and the dict object 2
+        byte[] bytes = BPListWriter.write(Arrays.asList("a", dict));
+        ByteBuffer.wrap(bytes).putLong(bytes.length - 16, 2);
+
+        List<BPListElement<?>> objectTable = elementParser.parse(bytes);
+        BPListElement<?> top = elementParser.getTopObject(objectTable);
+        assertSame(objectTable.get(2), top);
+        assertEquals(BPListType.BYTE_DICT, top.getType());
+    }
+
+    /**
+     * A dict whose object table holds exactly count objects: the dict, its keys
+     * and values, the last values reusing key strings
+     */
+    private Map<String, Object> dictOf(int count) {
+        Map<String, Object> dict = new LinkedHashMap<String, Object>();
+        int keys = 128;
+        for (int i = 0; i < keys; i++) {
+            int distinct = count - 1 - keys;
+            dict.put("key" + i, i < distinct ? "value" + i : "key" + i);
+        }
+        return dict;
+    }
+
+    private void assertDict(int count, BPListType type) throws IOException {
+        List<BPListElement<?>> objectTable = elementParser.parse(BPListWriter.write(dictOf(count)));
+        assertEquals(count, objectTable.size());
+        BPListElement<?> top = elementParser.getTopObject(objectTable);
+        assertEquals(type, top.getType());
+        @SuppressWarnings("unchecked")
+        Map<String, BPListElement<?>> dict = (Map<String, BPListElement<?>>) top.getValue();
+        assertEquals(128, dict.size());
+        assertEquals("value0", dict.get("key0").getValue());
+        assertEquals(count > 256 ? "value127" : "key127", dict.get("key127").getValue());
+    }
+
+    @Test
+    public void testReferenceSizeFromTrailer() throws IOException {
+        // one byte references up to 255 objects, two byte references from 256 on
+        assertDict(255, BPListType.BYTE_DICT);
+        assertDict(256, BPListType.SHORT_DICT);
+        assertDict(257, BPListType.SHORT_DICT);
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testBrokenObjectFailsOnLookup() throws IOException {
+        byte[] bytes = BPListWriter.write(Arrays.asList("a", "b"));
+        // object 1 is "a", marker 0x51 after the header and the array with its two references
+        assertEquals(0x51, bytes[11]);
+        bytes[11] = 0x70;
+        List<BPListElement<?>> objectTable = elementParser.parse(bytes);
+        objectTable.get(2);
+        objectTable.get(1);
+    }
+
+    @Test(expected = IOException.class)
+    public void testBrokenObjectFailsConversion() throws IOException {
+        byte[] bytes = BPListWriter.write(Arrays.asList("a", "b"));
+        bytes[11] = 0x70;
+        try {
+            new ConvertToXml().convertToXml(bytes);
+        } catch (UncheckedIOException e) {
+            fail("unchecked exception escaped: " + e);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+import nl.pvanassen.bplist.BPListWriter;
+import nl.pvanassen.bplist.BPListWriter.Uid;
+
+/**
+ * Times decoding a large keyed archive from the lazy object table against a
+ * LinkedList decoded up front, which is what the parser used to build. Not a
+ * unit test, it asserts nothing and is left out of the test run on purpose.
+ * Run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes nl.pvanassen.bplist.parser.ObjectTableBenchmark [entries]
+ * </pre>
+ */
+public class ObjectTableBenchmark {
+    private static final int ROUNDS = 5;
+
+    private final ElementParser elementParser = new ElementParser();
+
+    /**
+     * A root object with one member per entry, every other one an archived
+     * NSString
+     */
+    private static byte[] archive(int entries) throws IOException {
+        List<Object> objects = new ArrayList<Object>();
+        Map<String, Object> root = new LinkedHashMap<String, Object>();
+        objects.add("$null");
+        objects.add(root);
+        for (int i = 0; i < entries; i++) {
+            root.put("key" + i, new Uid(objects.size()));
+            if (i % 2 == 0) {
+                objects.add("value" + i);
+            } else {
+                objects.add(Collections.singletonMap("NS.string", "value" + i));
+            }
+        }
+        Map<String, Object> archive = new LinkedHashMap<String, Object>();
+        archive.put("$version", 100000L);
+        archive.put("$archiver", "NSKeyedArchiver");
+        archive.put("$top", Collections.singletonMap("root", new Uid(1)));
+        archive.put("$objects", objects);
+        return BPListWriter.write(archive);
+    }
+
+    /**
+     * Decodes every object into a LinkedList the way the parser did before the
+     * object table, so arrays and dicts resolve their references through it
+     */
+    private KeyedArchive linked(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int end = bytes.length;
+        int offsetSize = buffer.get(end - 26) & 0xff;
+        int refSize = buffer.get(end - 25) & 0xff;
+        int objectCount = (int) buffer.getLong(end - 24);
+        int topObject = (int) buffer.getLong(end - 16);
+        int position = (int) buffer.getLong(end - 8);
+        List<BPListElement<?>> objectTable = new LinkedList<BPListElement<?>>();
+        for (int i = 0; i < objectCount; i++) {
+            int offset = 0;
+            for (int j = 0; j < offsetSize; j++) {
+                offset = (offset << 8) | (buffer.get(position++) & 0xff);
+            }
+            objectTable.add(elementParser.parseObjectAt(buffer, offset, refSize, objectTable));
+        }
+        return new KeyedArchive(objectTable.get(topObject));
+    }
+
+    /**
+     * Reads every member of the root, returns the number of characters so the
+     * work cannot be optimized away
+     */
+    private static long readAll(KeyedArchive archive) throws IOException {
+        long length = 0;
+        for (BPListElement<?> value : archive.values(archive.top("root"))) {
+            length += archive.string(archive.resolve(value)).length();
+        }
+        return length;
+    }
+
+    /**
+     * Reads two members, about what a media metadata lookup does
+     */
+    private static long readTwo(KeyedArchive archive, int entries) throws IOException {
+        BPListElement<?> root = archive.top("root");
+        return archive.getString(root, "key0").length() + archive.getString(root, "key" + (entries - 1)).length();
+    }
+
+    private void run(int entries) throws IOException {
+        byte[] bytes = archive(entries);
+        long[] times = new long[4];
+        long check = 0;
+        // the first round warms up the JIT and is not counted
+        for (int round = 0; round <= ROUNDS; round++) {
+            long[] start = new long[5];
+            start[0] = System.nanoTime();
+            check += readAll(KeyedArchive.parse(elementParser, bytes));
+            start[1] = System.nanoTime();
+            check += readAll(linked(bytes));
+            start[2] = System.nanoTime();
+            check += readTwo(KeyedArchive.parse(elementParser, bytes), entries);
+            start[3] = System.nanoTime();
+            check += readTwo(linked(bytes), entries);
+            start[4] = System.nanoTime();
+            if (round > 0) {
+                for (int i = 0; i < times.length; i++) {
+                    times[i] += start[i + 1] - start[i];
+                }
+            }
+        }
+        System.out.println("keyed archive of " + entries + " entries, " + bytes.length + " bytes, average of " + ROUNDS + " rounds (" + check + ")");
+        System.out.println("  every member: " + (times[0] / ROUNDS / 1000) + "us from the object table, " + (times[1] / ROUNDS / 1000) + "us from a linked list");
+        System.out.println("  two members:  " + (times[2] / ROUNDS / 1000) + "us from the object table, " + (times[3] / ROUNDS / 1000) + "us from a linked list");
+    }
+
+    public static void main(String[] args) throws IOException {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        new ObjectTableBenchmark().run(entries);
+    }
+}
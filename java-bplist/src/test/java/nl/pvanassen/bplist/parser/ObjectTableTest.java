@@ -0,0 +1,38 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.*;
+import java.util.*;
+
+import nl.pvanassen.bplist.BPListWriter;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class ObjectTableTest {
+    private static final int ENTRIES = 10000;
+    private final ElementParser elementParser = new ElementParser();
+
+    @Test
+    public void testLargeDict() throws IOException {
+        Map<String, Object> root = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < ENTRIES; i++) {
+            root.put("key" + i, "value" + i);
+        }
+        List<BPListElement<?>> objectTable = elementParser.parseObjectTable(new ByteArrayInputStream(BPListWriter.write(root)));
+        assertEquals(2 * ENTRIES + 1, objectTable.size());
+        assertTrue(objectTable instanceof RandomAccess);
+        BPLDict dict = (BPLDict) elementParser.getTopObject(objectTable);
+        assertEquals(ENTRIES, dict.size());
+        Map<String, BPListElement<?>> value = dict.getValue();
+        assertEquals(ENTRIES, value.size());
+        for (int i = 0; i < ENTRIES; i++) {
+            assertEquals("value" + i, value.get("key" + i).getValue());
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testObjectTableIsReadOnly() throws IOException {
+        List<BPListElement<?>> objectTable = elementParser.parseObjectTable(new ByteArrayInputStream(BPListWriter.write(Arrays.asList("a", "b"))));
+        objectTable.add(null);
+    }
+}
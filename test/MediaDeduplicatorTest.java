@@ -0,0 +1,72 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.io.*;
+import java.nio.file.Files;
+import java.util.concurrent.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class MediaDeduplicatorTest{
+	File folder;
+	@Before
+	public void setUp() throws IOException{
+		folder = Files.createTempDirectory("dedup").toFile();
+	}
+	@After
+	public void tearDown(){
+		for(File file : folder.listFiles()){
+			file.delete();
+		}
+		folder.delete();
+	}
+	File media(String name, String content) throws IOException{
+		File file = new File(folder, name);
+		Files.write(file.toPath(), content.getBytes("UTF-8"));
+		return file;
+	}
+	// a forward posted in two chats in a row, the second is decoded before the first has settled
+	@Test
+	public void testAdjacentDuplicate() throws Exception{
+		File first = media("a.jpg", "the same bytes");
+		File second = media("b.jpg", "the same bytes");
+		MediaDeduplicator dedup = new MediaDeduplicator();
+		dedup.register(0, first);
+		dedup.register(1, second);
+		ExecutorService decoder = Executors.newSingleThreadExecutor();
+		try{
+			Future<String> duplicate = decoder.submit(() -> dedup.duplicateOf(second, 1));
+			assertNull(dedup.duplicateOf(first, 0));
+			dedup.settle(0, "0.jpg");
+			assertEquals("0.jpg", duplicate.get(10, TimeUnit.SECONDS));
+		}finally{
+			decoder.shutdownNow();
+		}
+		assertEquals("duplicate media files: 1, 0.0 MB saved", dedup.report());
+	}
+	@Test
+	public void testDifferentBytes() throws Exception{
+		File first = media("a.jpg", "some bytes....");
+		File second = media("b.jpg", "other bytes...");
+		MediaDeduplicator dedup = new MediaDeduplicator();
+		dedup.register(0, first);
+		dedup.register(1, second);
+		dedup.settle(0, "0.jpg");
+		assertNull(dedup.duplicateOf(second, 1));
+	}
+	// an earlier file that was not written, or whose copy failed, is nothing to point at
+	@Test
+	public void testNothingWritten() throws Exception{
+		File first = media("a.jpg", "the same bytes");
+		File second = media("b.jpg", "the same bytes");
+		File third = media("c.jpg", "the same bytes");
+		MediaDeduplicator dedup = new MediaDeduplicator();
+		dedup.register(0, first);
+		dedup.register(1, second);
+		dedup.register(2, third);
+		dedup.settle(0, null);
+		assertNull(dedup.duplicateOf(second, 1));
+		dedup.settle(1, "1.jpg");
+		dedup.failed("1.jpg");
+		assertNull(dedup.duplicateOf(third, 2));
+	}
+}
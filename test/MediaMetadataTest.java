@@ -0,0 +1,46 @@
+// created by Katharine Chui
+// https://github.com/Kethen
+import java.io.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class MediaMetadataTest{
+	static byte[] resource(String name) throws IOException{
+		InputStream in = MediaMetadataTest.class.getResourceAsStream(name);
+		try{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int readSize;
+			while((readSize = in.read(buffer)) != -1){
+				out.write(buffer, 0, readSize);
+			}
+			return out.toByteArray();
+		}finally{
+			in.close();
+		}
+	}
+	// a group reply mentioning two people, laid out the way NSKeyedArchiver writes it
+	// the quoted message archives the group jid before its stanzaID
+	@Test
+	public void testReply() throws IOException{
+		MediaMetadata metadata = new MediaMetadata();
+		metadata.parse(resource("zmetadata-reply.bplist"));
+		assertEquals("3EB0C9A1F2D4E5B6A7C8", metadata.quotedStanzaId);
+		assertEquals(Arrays.asList("447700900002@s.whatsapp.net", "447700900003@s.whatsapp.net"), metadata.mentionedJids);
+		assertEquals("447700900002@s.whatsapp.net,447700900003@s.whatsapp.net", metadata.joinedMentions());
+	}
+	// an older layout without a stanzaID key, quotedMessageData archives data and the stanza id is the first string after the root
+	@Test
+	public void testPositionalStanzaId() throws IOException{
+		MediaMetadata metadata = new MediaMetadata();
+		metadata.parse(resource("zmetadata-positional.bplist"));
+		assertTrue(metadata.reply);
+		assertEquals("3EB0D4C3B2A1F0E9D8C7", metadata.quotedStanzaId);
+		assertNull(metadata.joinedMentions());
+	}
+	@Test(expected = IOException.class)
+	public void testNotAnArchive() throws IOException{
+		new MediaMetadata().parse("not a bplist".getBytes());
+	}
+}